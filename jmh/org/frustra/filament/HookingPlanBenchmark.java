@@ -0,0 +1,137 @@
+package org.frustra.filament;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.ConstantProvider;
+import org.frustra.filament.hooking.types.FieldProvider;
+import org.frustra.filament.hooking.types.HookProvider;
+import org.frustra.filament.hooking.types.InsnPattern;
+import org.frustra.filament.hooking.types.InstructionProvider;
+import org.frustra.filament.hooking.types.MethodProvider;
+import org.frustra.filament.hooking.types.PatternProvider;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time and allocations of matching a hooking pass against one class with a {@link HookingPlan}.
+ * <p>
+ * Every kind of provider visits every constant, field, method, and instruction of the classes of ASM itself without accepting any of them,
+ * which is what most providers do for most classes. Run with <code>-prof gc</code>, where <code>gc.alloc.rate.norm</code> is the number of bytes
+ * allocated per class scanned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HookingPlanBenchmark {
+	private static final int CLASSES = 50;
+
+	private FilamentClassNode[] nodes;
+	private HookingPlan plan;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.loadJar(new File("lib/asm-5.0.1.jar"));
+		loader.loadJar(new File("lib/asm-tree-5.0.1.jar"));
+		String[] names = Filament.filament.classes.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+		nodes = new FilamentClassNode[CLASSES];
+		for (int i = 0; i < CLASSES; i++) {
+			nodes[i] = Filament.filament.classes.get(names[i]);
+		}
+		List<HookProvider> providers = new ArrayList<HookProvider>();
+		providers.add(new Constants());
+		providers.add(new Fields());
+		providers.add(new Methods());
+		providers.add(new Instructions());
+		providers.add(new Patterns());
+		plan = new HookingPlan(providers, null);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CLASSES)
+	public void scan() {
+		plan.scan(nodes, 0, CLASSES);
+	}
+
+	private static final class Constants extends ConstantProvider {
+		public boolean match(FilamentClassNode node) {
+			return true;
+		}
+
+		public boolean match(FilamentClassNode node, String constant) {
+			return false;
+		}
+
+		protected void complete(FilamentClassNode node) {}
+
+		protected void complete(FilamentClassNode node, String constant) {}
+	}
+
+	private static final class Fields extends FieldProvider {
+		public boolean match(FilamentClassNode node) {
+			return true;
+		}
+
+		public boolean match(FilamentClassNode node, FieldNode f) {
+			return false;
+		}
+
+		protected void complete(FilamentClassNode node) {}
+
+		protected void complete(FilamentClassNode node, FieldNode f) {}
+	}
+
+	private static final class Methods extends MethodProvider {
+		public boolean match(FilamentClassNode node, MethodNode m) {
+			return false;
+		}
+
+		protected void complete(FilamentClassNode node, MethodNode m) {}
+	}
+
+	private static final class Instructions extends InstructionProvider {
+		public boolean match(FilamentClassNode node, MethodNode m, AbstractInsnNode insn) {
+			return false;
+		}
+
+		protected void complete(FilamentClassNode node, MethodNode m, AbstractInsnNode insn) {}
+	}
+
+	/**
+	 * Finds many matches, since most methods load a field of <code>this</code>, but accepts none of them.
+	 */
+	private static final class Patterns extends PatternProvider {
+		public InsnPattern getPattern() {
+			return new InsnPattern().opcode(Opcodes.ALOAD).capture().opcode(Opcodes.GETFIELD).capture();
+		}
+
+		public boolean match(FilamentClassNode node, MethodNode m, AbstractInsnNode[] captures) {
+			return false;
+		}
+
+		protected void complete(FilamentClassNode node, MethodNode m, AbstractInsnNode[] captures) {}
+	}
+}
@@ -0,0 +1,11 @@
+#!/bin/sh
+# Usage: JMH=/path/to/jmh-core.jar:/path/to/jmh-generator-annprocess.jar:/path/to/jopt-simple.jar:/path/to/commons-math3.jar ./run-benchmarks.sh [JMH options]
+if [ -z "$JMH" ]; then
+	echo "Set JMH to the class path of JMH and its annotation processor" >&2
+	exit 1
+fi
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+classpath="./lib/asm-5.0.1.jar:./lib/asm-tree-5.0.1.jar:$JMH"
+javac -nowarn -d "$out" -cp "$classpath" -processor org.openjdk.jmh.generators.BenchmarkProcessor $(find ./src ./jmh -name '*.java') || exit 1
+java -cp "$out:$classpath" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,11 @@
+#!/bin/sh
+# Usage: JUNIT=/path/to/junit-4.x.jar:/path/to/hamcrest-core-1.3.jar ./run-tests.sh
+if [ -z "$JUNIT" ]; then
+	echo "Set JUNIT to the class path of JUnit 4 and Hamcrest" >&2
+	exit 1
+fi
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+classpath="./lib/asm-5.0.1.jar:./lib/asm-tree-5.0.1.jar:$JUNIT"
+javac -nowarn -Xlint:-options --release 8 -d "$out" -cp "$classpath" $(find ./src ./test -name '*.java') || exit 1
+java -cp "$out:$classpath" org.junit.runner.JUnitCore $(cd ./test && find . -name '*Test.java' | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g')
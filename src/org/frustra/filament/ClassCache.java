@@ -0,0 +1,149 @@
+package org.frustra.filament;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+
+/**
+ * ClassCache stores the final transformed bytes of each class on disk, so they can be reused by later runs.
+ * <p>
+ * Entries are stored in a directory named after a key that covers the contents of every loaded class,
+ * plus the class files of every registered hook provider and injector, and whether frames are computed. Any change to those produces a new key.
+ * Each entry also records the digest of its own source class and a checksum of its contents.
+ * Entries that are corrupt or don't match their source class are deleted and rebuilt.
+ *
+ * @see FilamentClassLoader#setCacheDirectory(File)
+ */
+final class ClassCache {
+	private static final int MAGIC = 0x46434331;
+
+	private final File root;
+	private File dir = null;
+
+	ClassCache(File root) {
+		this.root = root;
+	}
+
+	/**
+	 * Forget the current key, so it will be recalculated the next time the cache is used.
+	 * This should be called whenever classes, hook providers, or injectors change.
+	 */
+	synchronized void invalidate() {
+		dir = null;
+	}
+
+	/**
+	 * Read the cached bytes for a class.
+	 *
+	 * @param node the class to read
+	 * @return the cached bytes, or <code>null</code> if there is no valid entry
+	 */
+	byte[] get(FilamentClassNode node) {
+		File file = getFile(node);
+		if (file == null || !file.isFile()) return null;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			ByteBuffer buf;
+			try {
+				buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			} finally {
+				raf.close();
+			}
+			if (buf.getInt() != MAGIC) throw new IOException("Bad magic");
+			byte[] name = new byte[buf.getShort() & 0xFFFF];
+			buf.get(name);
+			if (!node.name.equals(new String(name, "UTF-8"))) throw new IOException("Wrong class");
+			byte[] digest = new byte[buf.get() & 0xFF];
+			buf.get(digest);
+			if (!Arrays.equals(digest, node.getDigest())) throw new IOException("Stale entry");
+			int length = buf.getInt();
+			int crc = buf.getInt();
+			if (length != buf.remaining()) throw new IOException("Truncated entry");
+			byte[] out = new byte[length];
+			buf.get(out);
+			CRC32 check = new CRC32();
+			check.update(out);
+			if ((int) check.getValue() != crc) throw new IOException("Bad checksum");
+			return out;
+		} catch (Exception e) {
+			if (Filament.filament.debug) System.out.println("Discarding cached class " + node + ": " + e.getMessage());
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Write the transformed bytes of a class to the cache.
+	 * Failures are ignored, since the cache can always be rebuilt.
+	 *
+	 * @param node the class that was transformed
+	 * @param bytes the final bytes of the class
+	 */
+	void put(FilamentClassNode node, byte[] bytes) {
+		File file = getFile(node);
+		if (file == null) return;
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 128);
+			DataOutputStream data = new DataOutputStream(out);
+			byte[] name = node.name.getBytes("UTF-8");
+			byte[] digest = node.getDigest();
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			data.writeInt(MAGIC);
+			data.writeShort(name.length);
+			data.write(name);
+			data.writeByte(digest.length);
+			data.write(digest);
+			data.writeInt(bytes.length);
+			data.writeInt((int) crc.getValue());
+			data.write(bytes);
+			data.close();
+
+			file.getParentFile().mkdirs();
+			File tmp = File.createTempFile("class", ".tmp", file.getParentFile());
+			FileOutputStream stream = new FileOutputStream(tmp);
+			try {
+				out.writeTo(stream);
+			} finally {
+				stream.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) tmp.delete();
+			}
+		} catch (IOException e) {
+			if (Filament.filament.debug) System.out.println("Couldn't cache class " + node + ": " + e.getMessage());
+		}
+	}
+
+	private File getFile(FilamentClassNode node) {
+		if (node.getDigest() == null) return null;
+		File dir = getDirectory();
+		String hash = Digests.hex(Digests.sha1().digest(node.name.getBytes()));
+		return new File(dir, hash.substring(0, 2) + File.separator + hash.substring(2) + ".class");
+	}
+
+	private synchronized File getDirectory() {
+		if (dir == null) dir = new File(root, computeKey());
+		return dir;
+	}
+
+	private static String computeKey() {
+		MessageDigest key = Digests.sha1();
+		key.update(Digests.classes());
+		key.update(Digests.providers());
+		key.update(Digests.injectors());
+		key.update((byte) (Filament.filament.computeFrames ? 1 : 0));
+		return Digests.hex(key.digest());
+	}
+}
@@ -0,0 +1,127 @@
+package org.frustra.filament;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.HookProvider;
+
+/**
+ * ClassIndex maps the requirements declared by hook providers to the set of classes meeting them.
+ * <p>
+ * Classes are identified by their position in the array the index was built from.
+ * Only the constants, super classes, interfaces, descriptions, and opcodes actually required by a provider are indexed,
+ * and all of them are collected in a single pass over the classes.
+ *
+ * @see Prefilter
+ */
+final class ClassIndex {
+	private final int size;
+	private final HashMap<String, BitSet> constants = new HashMap<String, BitSet>();
+	private final HashMap<String, BitSet> superNames = new HashMap<String, BitSet>();
+	private final HashMap<String, BitSet> interfaces = new HashMap<String, BitSet>();
+	private final HashMap<String, BitSet> fieldDescs = new HashMap<String, BitSet>();
+	private final HashMap<String, BitSet> methodDescs = new HashMap<String, BitSet>();
+	private final HashMap<Integer, BitSet> opcodes = new HashMap<Integer, BitSet>();
+	private final IdentityHashMap<HookProvider, BitSet> candidates = new IdentityHashMap<HookProvider, BitSet>();
+
+	/**
+	 * Index a set of classes for the requirements of some hook providers.
+	 *
+	 * @param nodes the classes to index
+	 * @param hooks the hook providers that will be matched against the classes
+	 */
+	@SuppressWarnings("unchecked")
+	ClassIndex(FilamentClassNode[] nodes, Collection<HookProvider> hooks) {
+		this.size = nodes.length;
+		IdentityHashMap<HookProvider, Prefilter> filters = new IdentityHashMap<HookProvider, Prefilter>();
+		for (HookProvider hook : hooks) {
+			Prefilter filter = Prefilter.of(hook);
+			if (filter == null) continue;
+			filters.put(hook, filter);
+			require(constants, filter.constants);
+			if (filter.superName != null) require(superNames, new String[] { filter.superName });
+			require(interfaces, filter.interfaces);
+			require(fieldDescs, filter.fieldDescs);
+			require(methodDescs, filter.methodDescs);
+			for (int op : filter.opcodes) {
+				if (!opcodes.containsKey(op)) opcodes.put(op, new BitSet(size));
+			}
+		}
+		if (filters.isEmpty()) return;
+
+		for (int i = 0; i < nodes.length; i++) {
+			FilamentClassNode node = nodes[i];
+			if (!constants.isEmpty()) {
+				List<String> list = node.getConstants();
+				for (int j = 0; j < list.size(); j++) {
+					BitSet set = constants.get(list.get(j));
+					if (set != null) set.set(i);
+				}
+			}
+			if (!superNames.isEmpty() && node.superName != null) {
+				BitSet set = superNames.get(node.superName);
+				if (set != null) set.set(i);
+			}
+			if (!interfaces.isEmpty()) {
+				for (String name : (List<String>) node.interfaces) {
+					BitSet set = interfaces.get(name);
+					if (set != null) set.set(i);
+				}
+			}
+			if (fieldDescs.isEmpty() && methodDescs.isEmpty() && opcodes.isEmpty()) continue;
+			// The shape is only needed while the class is indexed
+			FilamentClassNode.Shape shape = node.getShape();
+			for (Entry<String, BitSet> entry : fieldDescs.entrySet()) {
+				if (shape.containsFieldDesc(entry.getKey())) entry.getValue().set(i);
+			}
+			for (Entry<String, BitSet> entry : methodDescs.entrySet()) {
+				if (shape.containsMethodDesc(entry.getKey())) entry.getValue().set(i);
+			}
+			for (Entry<Integer, BitSet> entry : opcodes.entrySet()) {
+				if (shape.containsOpcode(entry.getKey())) entry.getValue().set(i);
+			}
+		}
+
+		for (Entry<HookProvider, Prefilter> entry : filters.entrySet()) {
+			Prefilter filter = entry.getValue();
+			BitSet set = new BitSet(size);
+			set.set(0, size);
+			intersect(set, constants, filter.constants);
+			if (filter.superName != null) intersect(set, superNames, new String[] { filter.superName });
+			intersect(set, interfaces, filter.interfaces);
+			intersect(set, fieldDescs, filter.fieldDescs);
+			intersect(set, methodDescs, filter.methodDescs);
+			for (int op : filter.opcodes) {
+				set.and(opcodes.get(op));
+			}
+			candidates.put(entry.getKey(), set);
+		}
+	}
+
+	/**
+	 * Get the classes that meet the requirements of a hook provider.
+	 *
+	 * @param hook a hook provider the index was built for
+	 * @return the positions of every candidate class, or <code>null</code> if the provider has no requirements
+	 */
+	BitSet candidates(HookProvider hook) {
+		return candidates.get(hook);
+	}
+
+	private void require(HashMap<String, BitSet> index, String[] keys) {
+		for (String key : keys) {
+			if (!index.containsKey(key)) index.put(key, new BitSet(size));
+		}
+	}
+
+	private static void intersect(BitSet set, HashMap<String, BitSet> index, String[] keys) {
+		for (String key : keys) {
+			set.and(index.get(key));
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package org.frustra.filament;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.frustra.filament.hooking.types.ConstantProvider;
+import org.frustra.filament.hooking.types.MatchConstant;
+import org.frustra.filament.hooking.types.MatchConstantPrefix;
+import org.frustra.filament.hooking.types.MatchConstantSubstring;
+
+/**
+ * ConstantMatcher searches String constants for the needles declared by constant providers with {@link MatchConstant},
+ * {@link MatchConstantPrefix}, and {@link MatchConstantSubstring}.
+ * <p>
+ * The needles of every provider are compiled into a single Aho-Corasick automaton,
+ * so each constant is scanned once no matter how many providers or needles there are.
+ * If no provider uses {@link MatchConstantSubstring}, scanning stops after the longest needle.
+ *
+ * @see HookingPlan
+ */
+final class ConstantMatcher {
+	private static final byte EXACT = 0;
+	private static final byte PREFIX = 1;
+	private static final byte SUBSTRING = 2;
+
+	private final boolean[] declared;
+	private final int words;
+
+	private final char[][] keys;
+	private final int[][] targets;
+	private final int[] fail;
+	private final int[][] outputs;
+
+	private final int[] needleLength;
+	private final byte[] needleKind;
+	private final int[] needleProvider;
+	private final int anchoredLength;
+
+	private ConstantMatcher(ConstantProvider[] providers) {
+		declared = new boolean[providers.length];
+		words = Math.max(1, (providers.length + 63) >>> 6);
+
+		ArrayList<String> needles = new ArrayList<String>();
+		ArrayList<Byte> kinds = new ArrayList<Byte>();
+		ArrayList<Integer> owners = new ArrayList<Integer>();
+		boolean substrings = false;
+		int longest = 0;
+		for (int i = 0; i < providers.length; i++) {
+			Class<?> cls = providers[i].getClass();
+			MatchConstant exact = cls.getAnnotation(MatchConstant.class);
+			MatchConstantPrefix prefix = cls.getAnnotation(MatchConstantPrefix.class);
+			MatchConstantSubstring substring = cls.getAnnotation(MatchConstantSubstring.class);
+			if (exact == null && prefix == null && substring == null) continue;
+			declared[i] = true;
+			String[][] groups = { exact == null ? null : exact.value(), prefix == null ? null : prefix.value(), substring == null ? null : substring.value() };
+			for (byte kind = EXACT; kind <= SUBSTRING; kind++) {
+				if (groups[kind] == null) continue;
+				for (String needle : groups[kind]) {
+					needles.add(needle);
+					kinds.add(kind);
+					owners.add(i);
+					if (kind == SUBSTRING) substrings = true;
+					longest = Math.max(longest, needle.length());
+				}
+			}
+		}
+		anchoredLength = substrings ? Integer.MAX_VALUE : longest;
+
+		needleLength = new int[needles.size()];
+		needleKind = new byte[needles.size()];
+		needleProvider = new int[needles.size()];
+		ArrayList<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+		trie.add(new TreeMap<Character, Integer>());
+		found.add(new ArrayList<Integer>());
+		for (int n = 0; n < needles.size(); n++) {
+			String needle = needles.get(n);
+			needleLength[n] = needle.length();
+			needleKind[n] = kinds.get(n);
+			needleProvider[n] = owners.get(n);
+			int state = 0;
+			for (int i = 0; i < needle.length(); i++) {
+				Integer next = trie.get(state).get(needle.charAt(i));
+				if (next == null) {
+					next = trie.size();
+					trie.get(state).put(needle.charAt(i), next);
+					trie.add(new TreeMap<Character, Integer>());
+					found.add(new ArrayList<Integer>());
+				}
+				state = next;
+			}
+			found.get(state).add(n);
+		}
+
+		int states = trie.size();
+		keys = new char[states][];
+		targets = new int[states][];
+		fail = new int[states];
+		for (int s = 0; s < states; s++) {
+			TreeMap<Character, Integer> edges = trie.get(s);
+			keys[s] = new char[edges.size()];
+			targets[s] = new int[edges.size()];
+			int i = 0;
+			for (Entry<Character, Integer> edge : edges.entrySet()) {
+				keys[s][i] = edge.getKey();
+				targets[s][i++] = edge.getValue();
+			}
+		}
+
+		// Breadth first, so the failure state of every parent is known before its children
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for (int child : targets[0]) {
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int s = queue.removeFirst();
+			for (int i = 0; i < keys[s].length; i++) {
+				int child = targets[s][i];
+				int f = fail[s];
+				int next = step(f, keys[s][i]);
+				while (next < 0 && f != 0) {
+					f = fail[f];
+					next = step(f, keys[s][i]);
+				}
+				fail[child] = next < 0 ? 0 : next;
+				found.get(child).addAll(found.get(fail[child]));
+				queue.add(child);
+			}
+		}
+
+		outputs = new int[states][];
+		for (int s = 0; s < states; s++) {
+			ArrayList<Integer> list = found.get(s);
+			outputs[s] = new int[list.size()];
+			for (int i = 0; i < list.size(); i++) {
+				outputs[s][i] = list.get(i);
+			}
+		}
+	}
+
+	/**
+	 * Compile the needles declared by a list of constant providers.
+	 *
+	 * @param providers the constant providers of a hooking pass
+	 * @return a matcher for the providers, or <code>null</code> if none of them declare needles
+	 */
+	static ConstantMatcher compile(ConstantProvider[] providers) {
+		for (ConstantProvider provider : providers) {
+			Class<?> cls = provider.getClass();
+			if (cls.isAnnotationPresent(MatchConstant.class) || cls.isAnnotationPresent(MatchConstantPrefix.class) || cls.isAnnotationPresent(MatchConstantSubstring.class)) {
+				return new ConstantMatcher(providers);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check if a provider declared needles, so it should only be matched against constants that hit them.
+	 *
+	 * @param provider the position of the provider in the array this matcher was compiled from
+	 * @return <code>true</code> if the provider declared any needles
+	 */
+	boolean isDeclared(int provider) {
+		return declared[provider];
+	}
+
+	/**
+	 * Create a bitset large enough to hold the hits of every provider.
+	 *
+	 * @return a new empty bitset
+	 */
+	long[] newHits() {
+		return new long[words];
+	}
+
+	/**
+	 * Find the providers with a needle matching a constant.
+	 *
+	 * @param constant the constant to scan
+	 * @param hits a bitset from {@link #newHits()}, which is cleared and then has the bit of every matching provider set
+	 * @return <code>true</code> if any provider matched
+	 */
+	boolean scan(String constant, long[] hits) {
+		for (int i = 0; i < hits.length; i++) {
+			hits[i] = 0;
+		}
+		boolean any = false;
+		int length = constant.length();
+		int limit = Math.min(length, anchoredLength);
+		int state = 0;
+		for (int i = 0; i < limit; i++) {
+			char c = constant.charAt(i);
+			int next = step(state, c);
+			while (next < 0 && state != 0) {
+				state = fail[state];
+				next = step(state, c);
+			}
+			state = next < 0 ? 0 : next;
+			int[] out = outputs[state];
+			for (int j = 0; j < out.length; j++) {
+				int n = out[j];
+				int start = i + 1 - needleLength[n];
+				if (needleKind[n] == EXACT ? start == 0 && i + 1 == length : needleKind[n] == SUBSTRING || start == 0) {
+					hits[needleProvider[n] >>> 6] |= 1L << needleProvider[n];
+					any = true;
+				}
+			}
+		}
+		// Empty needles are only stored on the root, which is never reached by a step
+		int[] out = outputs[0];
+		for (int j = 0; j < out.length; j++) {
+			int n = out[j];
+			if (needleKind[n] != EXACT || length == 0) {
+				hits[needleProvider[n] >>> 6] |= 1L << needleProvider[n];
+				any = true;
+			}
+		}
+		return any;
+	}
+
+	private int step(int state, char c) {
+		char[] k = keys[state];
+		int low = 0, high = k.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (k[mid] < c) {
+				low = mid + 1;
+			} else if (k[mid] > c) {
+				high = mid - 1;
+			} else {
+				return targets[state][mid];
+			}
+		}
+		return -1;
+	}
+}
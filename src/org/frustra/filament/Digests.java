@@ -0,0 +1,127 @@
+package org.frustra.filament;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.HookProvider;
+import org.frustra.filament.injection.ClassInjector;
+import org.frustra.filament.injection.ClassVisitorInjector;
+
+/**
+ * Digests contains helpers for fingerprinting the state of the global Filament instance.
+ * These are used to decide whether cached results from a previous run can be reused.
+ */
+final class Digests {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private Digests() {}
+
+	/**
+	 * Create a new SHA-1 digest.
+	 *
+	 * @return a SHA-1 {@link MessageDigest}
+	 */
+	static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Digest the name and original bytes of every loaded class, in name order.
+	 *
+	 * @return a SHA-1 digest of all loaded classes
+	 */
+	static byte[] classes() {
+		MessageDigest digest = sha1();
+		List<String> names = new ArrayList<String>(Filament.filament.classes.keySet());
+		Collections.sort(names);
+		for (String name : names) {
+			FilamentClassNode node = Filament.filament.classes.get(name);
+			if (node == null) continue;
+			digest.update(name.getBytes());
+			byte[] bytes = node.getDigest();
+			if (bytes != null) digest.update(bytes);
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Digest the hooking pass and class file of every registered hook provider.
+	 *
+	 * @return a SHA-1 digest of all hook providers
+	 */
+	static byte[] providers() {
+		MessageDigest digest = sha1();
+		for (Entry<Integer, ArrayList<HookProvider>> pass : Filament.filament.hooks.entrySet()) {
+			digest.update(pass.getKey().toString().getBytes());
+			for (HookProvider hook : pass.getValue()) {
+				update(digest, hook.getClass());
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Digest the class file of every registered injector, in registration order.
+	 *
+	 * @return a SHA-1 digest of all injectors
+	 */
+	static byte[] injectors() {
+		MessageDigest digest = sha1();
+		for (ClassInjector injector : Filament.filament.injectors) {
+			update(digest, injector.getClass());
+		}
+		for (ClassVisitorInjector injector : Filament.filament.visitorInjectors) {
+			update(digest, injector.getClass());
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Add the name and class file of a class to a digest.
+	 *
+	 * @param digest the digest to update
+	 * @param cls the class to add
+	 */
+	static void update(MessageDigest digest, Class<?> cls) {
+		digest.update(cls.getName().getBytes());
+		InputStream stream = Filament.filament.classLoader.getResourceAsStreamOriginal(cls.getName().replace('.', '/') + ".class");
+		if (stream == null) return;
+		try {
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = stream.read(buf)) > 0) {
+				digest.update(buf, 0, len);
+			}
+		} catch (IOException e) {} finally {
+			try {
+				stream.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Format bytes as a lowercase hex string.
+	 *
+	 * @param buf the bytes to format
+	 * @return a hex String
+	 */
+	static String hex(byte[] buf) {
+		char[] out = new char[buf.length * 2];
+		for (int i = 0; i < buf.length; i++) {
+			out[i * 2] = HEX[(buf[i] >> 4) & 0xF];
+			out[i * 2 + 1] = HEX[buf[i] & 0xF];
+		}
+		return new String(out);
+	}
+}
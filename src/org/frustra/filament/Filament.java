@@ -1,23 +1,32 @@
 package org.frustra.filament;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.frustra.filament.hooking.FilamentClassNode;
 import org.frustra.filament.hooking.types.HookProvider;
 import org.frustra.filament.injection.ClassInjector;
+import org.frustra.filament.injection.ClassVisitorInjector;
 
 public final class Filament {
 	protected static Filament filament;
 
 	protected boolean debug;
+	protected int parallelism = 1;
+	protected boolean lazy = false;
+	protected boolean computeFrames = false;
+	protected ClassCache cache = null;
+	protected ConcurrentHashMap<String, byte[]> transformed = new ConcurrentHashMap<String, byte[]>();
 
-	protected HashMap<String, FilamentClassNode> classes = new HashMap<String, FilamentClassNode>();
+	protected ConcurrentHashMap<String, FilamentClassNode> classes = new ConcurrentHashMap<String, FilamentClassNode>();
 	protected FilamentClassLoader classLoader = null;
 
 	protected TreeMap<Integer, ArrayList<HookProvider>> hooks = new TreeMap<Integer, ArrayList<HookProvider>>();
+	protected volatile HookStream stream = null;
 	protected ArrayList<ClassInjector> injectors = new ArrayList<ClassInjector>();
+	protected ArrayList<ClassVisitorInjector> visitorInjectors = new ArrayList<ClassVisitorInjector>();
+	protected volatile InjectorIndex injectorIndex = null;
 
 	protected Filament(FilamentClassLoader loader, boolean debug) {
 		this.classLoader = loader;
@@ -25,4 +34,25 @@ public final class Filament {
 		if (Filament.filament != null) throw new RuntimeException("An instance of Filament already exists!");
 		Filament.filament = this;
 	}
+
+	/**
+	 * Called whenever the loaded classes, hook providers, or injectors change,
+	 * so that anything derived from them is rebuilt.
+	 */
+	protected void invalidate() {
+		transformed.clear();
+		injectorIndex = null;
+		if (cache != null) cache.invalidate();
+	}
+
+	/**
+	 * Revert every class that has been injected back to its original bytes.
+	 * Called before hooks are resolved again, since injectors depend on the previous hooks.
+	 */
+	protected void revertInjected() {
+		for (FilamentClassNode node : classes.values()) {
+			if (node.getInjected() > 0) node.revert();
+		}
+		invalidate();
+	}
 }
@@ -2,7 +2,6 @@ package org.frustra.filament;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -13,12 +12,19 @@ import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipException;
 
 import org.frustra.filament.hooking.FilamentClassNode;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
 /**
@@ -50,8 +56,17 @@ import org.objectweb.asm.ClassWriter;
  * @see Injectors
  */
 public class FilamentClassLoader extends URLClassLoader {
+	private static final int PARSE_BATCH = 64;
+	private static final int TRANSFORM_BATCH = 16;
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
 	private ClassLoader parent;
-	private HashMap<String, Class<?>> loaded = new HashMap<String, Class<?>>();
+	private CopyOnWriteArrayList<MappedJarFile> mappedJars = new CopyOnWriteArrayList<MappedJarFile>();
+	private ConcurrentHashMap<String, Class<?>> loaded = new ConcurrentHashMap<String, Class<?>>();
+	private AtomicLong transformHits = new AtomicLong(), transformMisses = new AtomicLong();
 
 	/**
 	 * Create a FilamentClassLoader
@@ -76,17 +91,42 @@ public class FilamentClassLoader extends URLClassLoader {
 
 	/**
 	 * Load the contents of a jar into the filament class loader so that they can be hooked and injected.
+	 * <p>
+	 * The jar is memory-mapped and read directly, without going through {@link JarFile}.
+	 * Jars that can't be mapped, such as ZIP64 jars, are loaded through {@link JarFile} instead.
 	 * 
 	 * @param jarFile a jar to be loaded
 	 * @throws IOException if the jar couldn't be loaded
 	 */
 	public final void loadJar(File jarFile) throws IOException {
-		JarFile jar = new JarFile(jarFile);
+		MappedJarFile mapped = null;
 		try {
-			loadJar(jar, jarFile.toURI().toURL());
-		} finally {
-			jar.close();
+			mapped = new MappedJarFile(jarFile);
+		} catch (ZipException e) {
+			if (Filament.filament.debug) System.out.println("Couldn't map jar, falling back to JarFile: " + e.getMessage());
+		}
+		if (mapped == null) {
+			JarFile jar = new JarFile(jarFile);
+			try {
+				loadJar(jar, jarFile.toURI().toURL());
+			} finally {
+				jar.close();
+			}
+			return;
 		}
+
+		final ArrayList<MappedJarFile.Entry> entries = new ArrayList<MappedJarFile.Entry>();
+		for (MappedJarFile.Entry entry : mapped.entries()) {
+			if (entry.name.endsWith(".class")) entries.add(entry);
+		}
+		final MappedJarFile jar = mapped;
+		loadClasses(new ClassSource(entries.size()) {
+			protected FilamentClassNode parse(int index) throws IOException {
+				return FilamentClassNode.loadFromBytes(jar.read(entries.get(index)), Filament.filament.lazy);
+			}
+		});
+		mappedJars.add(jar);
+		addURL(jarFile.toURI().toURL());
 	}
 
 	/**
@@ -95,14 +135,10 @@ public class FilamentClassLoader extends URLClassLoader {
 	 * @param jarFile a jar to be loaded
 	 * @throws IOException if the jar couldn't be loaded
 	 * @throws URISyntaxException if the jar {@link URL} is not a valid file
+	 * @see #loadJar(File)
 	 */
 	public final void loadJar(URL jarFile) throws IOException, URISyntaxException {
-		JarFile jar = new JarFile(new File(jarFile.toURI()));
-		try {
-			loadJar(jar, jarFile);
-		} finally {
-			jar.close();
-		}
+		loadJar(new File(jarFile.toURI()));
 	}
 
 	/**
@@ -115,19 +151,105 @@ public class FilamentClassLoader extends URLClassLoader {
 	 * @param url the URL that the JarFile was loaded from
 	 * @throws IOException if the jar couldn't be loaded
 	 */
-	public final void loadJar(JarFile jar, URL url) throws IOException {
-		Enumeration<JarEntry> entries = jar.entries();
-		while (entries.hasMoreElements()) {
-			JarEntry entry = entries.nextElement();
-			if (entry != null && entry.getName().endsWith(".class")) {
-				FilamentClassNode node = FilamentClassNode.loadFromStream(jar.getInputStream(entry));
-				String name = node.name.replaceAll("/", ".");
-				Filament.filament.classes.put(name, node);
-			}
+	public final void loadJar(final JarFile jar, URL url) throws IOException {
+		final ArrayList<JarEntry> entries = new ArrayList<JarEntry>();
+		Enumeration<JarEntry> e = jar.entries();
+		while (e.hasMoreElements()) {
+			JarEntry entry = e.nextElement();
+			if (entry != null && entry.getName().endsWith(".class")) entries.add(entry);
 		}
+		loadClasses(new ClassSource(entries.size()) {
+			protected FilamentClassNode parse(int index) throws IOException {
+				return FilamentClassNode.loadFromStream(jar.getInputStream(entries.get(index)), Filament.filament.lazy);
+			}
+		});
 		if (url != null) addURL(url);
 	}
 
+	private void loadClasses(ClassSource source) throws IOException {
+		FilamentClassNode[] nodes = new FilamentClassNode[source.size];
+		if (Filament.filament.parallelism > 1 && nodes.length > PARSE_BATCH) {
+			ParseTask task = new ParseTask(source, nodes, 0, nodes.length, new AtomicReference<IOException>());
+			ForkJoinPool pool = new ForkJoinPool(Filament.filament.parallelism);
+			try {
+				pool.invoke(task);
+			} finally {
+				pool.shutdown();
+			}
+			if (task.failure.get() != null) throw task.failure.get();
+		} else {
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = source.load(i);
+			}
+		}
+		// Insert in entry order so duplicate names resolve the same way regardless of thread count
+		for (FilamentClassNode node : nodes) {
+			Filament.filament.classes.put(node.name.replace('/', '.'), node);
+		}
+		Filament.filament.invalidate();
+	}
+
+	/**
+	 * Set the number of threads used to parse classes when loading a jar, to match classes during each hooking pass,
+	 * and to transform classes in {@link #precompute()}.
+	 * A value of 1 or less processes every class on the calling thread, which is the default.
+	 * <p>
+	 * The loaded classes and resolved hooks are the same no matter how many threads are used.
+	 * 
+	 * @param threads the number of parser threads to use
+	 */
+	public final void setParallelism(int threads) {
+		Filament.filament.parallelism = Math.max(1, threads);
+	}
+
+	/**
+	 * Enable or disable lazy class parsing for classes loaded after this call.
+	 * <p>
+	 * Lazily loaded classes only keep their original bytes, header, and constants in memory.
+	 * Fields and methods are parsed the first time a {@link org.frustra.filament.hooking.types.FieldProvider FieldProvider}
+	 * or {@link org.frustra.filament.hooking.types.MethodProvider MethodProvider} needs them,
+	 * and instructions are parsed when an {@link org.frustra.filament.hooking.types.InstructionProvider InstructionProvider} or injector needs them.
+	 * <p>
+	 * While lazy parsing is enabled, the <code>match(FilamentClassNode)</code> method of a hook provider
+	 * should call {@link FilamentClassNode#expand(int)} before reading a class's fields or methods.
+	 * 
+	 * @param lazy <code>true</code> if classes should be parsed on demand
+	 */
+	public final void setLazyLoading(boolean lazy) {
+		Filament.filament.lazy = lazy;
+	}
+
+	/**
+	 * Enable or disable computing stack map frames for every class modified by an injector, which is disabled by default.
+	 * <p>
+	 * Without frames computed, injectors that change the control flow of a method can produce classes the verifier rejects.
+	 * Frames are computed without loading any classes: class hierarchies are read from the classes loaded into filament,
+	 * and from the class files of the parent class loader for any other class.
+	 * Changing this discards any previously transformed bytes.
+	 * 
+	 * @param computeFrames <code>true</code> if frames should be computed
+	 */
+	public final void setComputeFrames(boolean computeFrames) {
+		Filament.filament.computeFrames = computeFrames;
+		Filament.filament.invalidate();
+	}
+
+	/**
+	 * Enable a persistent cache of transformed class bytes in the specified directory.
+	 * Passing <code>null</code> disables the cache, which is the default.
+	 * <p>
+	 * Cached classes are stored under a key covering the contents of every loaded class and the class files
+	 * of every registered hook provider and injector. When none of those have changed since a previous run,
+	 * {@link #getClassBytes(String)} reads the final bytes straight from the cache without running any injectors.
+	 * Corrupt or stale entries are detected, discarded, and rebuilt.
+	 * Old keys are never cleaned up automatically.
+	 * 
+	 * @param dir the directory to store cached classes in
+	 */
+	public final void setCacheDirectory(File dir) {
+		Filament.filament.cache = dir == null ? null : new ClassCache(dir);
+	}
+
 	/**
 	 * Load the classes contained within a package into the filament class loader so that they can be hooked and injected.
 	 * This function will overwrite any previously loaded classes.
@@ -141,9 +263,10 @@ public class FilamentClassLoader extends URLClassLoader {
 		for (String name : classes) {
 			InputStream stream = getResourceAsStream(name.replace('.', '/') + ".class");
 			if (stream == null) throw new IOException("Couldn't find resource: " + name);
-			FilamentClassNode node = FilamentClassNode.loadFromStream(stream);
+			FilamentClassNode node = FilamentClassNode.loadFromStream(stream, Filament.filament.lazy);
 			Filament.filament.classes.put(name, node);
 		}
+		Filament.filament.invalidate();
 	}
 
 	/**
@@ -164,13 +287,28 @@ public class FilamentClassLoader extends URLClassLoader {
 				throw new IOException("Couldn't find resource: " + cls.getName(), e);
 			}
 			if (stream == null) throw new IOException("Couldn't find resource: " + cls.getName());
-			FilamentClassNode node = FilamentClassNode.loadFromStream(stream);
+			FilamentClassNode node = FilamentClassNode.loadFromStream(stream, Filament.filament.lazy);
 			Filament.filament.classes.put(cls.getName(), node);
 		}
+		Filament.filament.invalidate();
+	}
+
+	/**
+	 * Forget every class loaded for hooking and injection, so an updated version of a jar can be loaded in their place.
+	 * Classes that have already been defined by this class loader are not affected.
+	 * 
+	 * @see Hooks#rehook()
+	 */
+	public final void clearClasses() {
+		Filament.filament.classes.clear();
+		Filament.filament.invalidate();
 	}
 
 	/**
 	 * List the names of the classes contained within a package
+	 * <p>
+	 * A jar code root is looked up in an index of its entry paths, which is built the first time any package is listed and rebuilt if the jar changes.
+	 * A directory code root is listed directly, so classes added or removed since the last call are seen.
 	 * 
 	 * @param packageName a String representing the name of a package
 	 * @return an array containing the full name of each class as a String
@@ -178,7 +316,6 @@ public class FilamentClassLoader extends URLClassLoader {
 	 * @throws ClassNotFoundException if the package couldn't be resolved
 	 */
 	public final String[] listPackage(String packageName) throws IOException, ClassNotFoundException {
-		ArrayList<String> classes = new ArrayList<String>();
 		URL codeRoot = this.getClass().getProtectionDomain().getCodeSource().getLocation();
 		if (codeRoot == null) throw new ClassNotFoundException("Couldn't determine code root!");
 		File root = null;
@@ -188,39 +325,28 @@ public class FilamentClassLoader extends URLClassLoader {
 			throw new ClassNotFoundException("Couldn't determine code root!");
 		}
 		if (root.isDirectory()) {
-			URL packageURL = getResource(packageName.replace('.', '/'));
-			if (packageURL == null) throw new ClassNotFoundException("Couldn't load package location: " + packageName);
-			File packageFolder = new File(packageURL.getFile());
+			File packageFolder = new File(root, packageName.replace('.', '/'));
+			if (!packageFolder.isDirectory()) {
+				// The package may be in a different directory on the class path
+				URL packageURL = getResource(packageName.replace('.', '/'));
+				if (packageURL == null) throw new ClassNotFoundException("Couldn't load package location: " + packageName);
+				packageFolder = new File(packageURL.getFile());
+			}
+			ArrayList<String> found = new ArrayList<String>();
 			for (File f : packageFolder.listFiles()) {
 				String name = f.getName();
 				if (f.isFile() && !name.startsWith(".") && name.endsWith(".class")) {
-					FileInputStream stream = new FileInputStream(f);
-					ClassReader reader = new ClassReader(stream);
-					stream.close();
-					classes.add(reader.getClassName().replace('/', '.'));
+					found.add(packageName + "." + name.substring(0, name.length() - 6));
 				}
 			}
+			return found.toArray(new String[0]);
 		} else if (root.getAbsolutePath().endsWith(".jar")) {
-			JarFile file = new JarFile(root);
-			Enumeration<? extends JarEntry> entries = file.entries();
-			while (entries.hasMoreElements()) {
-				JarEntry entry = entries.nextElement();
-				if (entry == null || entry.isDirectory()) continue;
-				String entryPath = entry.getName();
-				String fileName = entryPath.substring(entryPath.lastIndexOf("/") + 1);
-
-				if (fileName.endsWith(".class")) {
-					ClassReader reader = new ClassReader(file.getInputStream(entry));
-					String className = reader.getClassName().replace('/', '.');
-					String packageName2 = className.substring(0, className.lastIndexOf('.'));
-					if (packageName.equals(packageName2)) classes.add(className);
-				}
-			}
-			file.close();
+			String[] classes = PackageIndex.get(root).list(packageName);
+			return classes == null ? new String[0] : classes;
 		} else {
 			System.out.println("Unknown source type: " + root.getAbsolutePath());
 		}
-		return classes.toArray(new String[0]);
+		return new String[0];
 	}
 
 	protected Class<?> getPrimitiveType(String name) throws ClassNotFoundException {
@@ -237,12 +363,27 @@ public class FilamentClassLoader extends URLClassLoader {
 		throw new ClassNotFoundException(name);
 	}
 
+	/**
+	 * Load a class, injecting it first if it was loaded into filament.
+	 * <p>
+	 * FilamentClassLoader is parallel capable. Classes with different names can be loaded concurrently,
+	 * and each class is only defined once no matter how many threads request it.
+	 * 
+	 * @param name the name of a class
+	 * @return the loaded class
+	 * @throws ClassNotFoundException if the class couldn't be found or defined
+	 */
 	public final Class<?> loadClass(String name) throws ClassNotFoundException {
+		if (name == null) return null;
 		Class<?> cls = loaded.get(name);
-		if (cls == null) {
-			cls = defineClass(name);
-			if (cls != null) {
-				loaded.put(name, cls);
+		if (cls != null) return cls;
+		synchronized (getClassLoadingLock(name)) {
+			cls = loaded.get(name);
+			if (cls == null) {
+				cls = defineClass(name);
+				if (cls != null) {
+					loaded.put(name, cls);
+				}
 			}
 		}
 		return cls;
@@ -263,7 +404,7 @@ public class FilamentClassLoader extends URLClassLoader {
 	private Class<?> defineClass(String name) throws ClassNotFoundException {
 		if (name == null) return null;
 		try {
-			byte[] buf = getClassBytes(name);
+			byte[] buf = transform(name);
 			if (buf != null) {
 				return defineClass(name, buf);
 			} else {
@@ -285,26 +426,137 @@ public class FilamentClassLoader extends URLClassLoader {
 	/**
 	 * Get the bytes representing a class.
 	 * If the class has relevant injectors, they will be run on the class.
+	 * Classes that no injector matches are returned from their original bytes without being rewritten,
+	 * so a class changed outside an injector must be marked with {@link FilamentClassNode#setModified(boolean)} for the change to be written.
+	 * If a cache directory is set, the bytes are read from and saved to the cache.
+	 * <p>
+	 * Each class is only transformed once. The result is reused by {@link #loadClass(String)}, {@link #getResourceAsStream(String)},
+	 * and {@link #findResource(String)} until hooks, injectors, or classes change, or {@link #invalidateClassBytes()} is called.
 	 * 
 	 * @param name the name of a class
 	 * @return a byte array representing the class or <code>null</code> if the class is not loaded for modification
 	 */
 	public byte[] getClassBytes(String name) {
+		byte[] buf = transform(name);
+		return buf == null ? null : buf.clone();
+	}
+
+	/**
+	 * Inject and write every loaded class ahead of time, so loading them later only has to define the stored bytes.
+	 * Classes are transformed on the threads set by {@link #setParallelism(int)}, and the bytes are identical to transforming them on demand.
+	 * <p>
+	 * This should be called after hooks and injectors are loaded, since loading either discards the transformed bytes.
+	 * 
+	 * @see #getClassBytes(String)
+	 */
+	public final void precompute() {
+		precompute(Filament.filament.classes.keySet().toArray(new String[0]));
+	}
+
+	/**
+	 * Inject and write the specified classes ahead of time, so loading them later only has to define the stored bytes.
+	 * Names of classes that aren't loaded for modification are ignored.
+	 * 
+	 * @param names the names of the classes to transform
+	 * @see #precompute()
+	 */
+	public final void precompute(String... names) {
+		if (Filament.filament.parallelism > 1 && names.length > TRANSFORM_BATCH) {
+			ForkJoinPool pool = new ForkJoinPool(Filament.filament.parallelism);
+			try {
+				pool.invoke(new TransformTask(names, 0, names.length));
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for (String name : names) {
+				precompute(name);
+			}
+		}
+	}
+
+	private void precompute(String name) {
+		try {
+			transform(name);
+		} catch (RuntimeException e) {
+			// Left to fail again when the class is actually requested
+			if (Filament.filament.debug) System.out.println("Couldn't precompute class " + name + ": " + e);
+		}
+	}
+
+	/**
+	 * Discard the transformed bytes of every class, so they are rebuilt the next time they are requested.
+	 * This happens automatically when classes, hook providers, or injectors are loaded.
+	 */
+	public void invalidateClassBytes() {
+		Filament.filament.invalidate();
+	}
+
+	/**
+	 * Get the number of times {@link #getClassBytes(String)} has reused previously transformed bytes.
+	 * 
+	 * @return the number of hits
+	 */
+	public long getClassBytesHits() {
+		return transformHits.get();
+	}
+
+	/**
+	 * Get the number of times {@link #getClassBytes(String)} has had to transform a class.
+	 * 
+	 * @return the number of misses
+	 */
+	public long getClassBytesMisses() {
+		return transformMisses.get();
+	}
+
+	private byte[] transform(String name) {
+		byte[] buf = Filament.filament.transformed.get(name);
+		if (buf != null) {
+			transformHits.incrementAndGet();
+			return buf;
+		}
 		FilamentClassNode node = Filament.filament.classes.get(name);
+		if (node == null) return null;
 
-		if (node != null) {
-			Injectors.injectClass(node);
+		synchronized (node) {
+			buf = Filament.filament.transformed.get(name);
+			if (buf != null) {
+				transformHits.incrementAndGet();
+				return buf;
+			}
+			transformMisses.incrementAndGet();
 
-			ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-			node.accept(writer);
+			ClassCache cache = Filament.filament.cache;
+			if (cache != null) buf = cache.get(node);
+			if (buf == null) {
+				Injectors.injectClass(node);
 
-			return writer.toByteArray();
-		} else return null;
+				if (node.isModified()) {
+					ClassWriter writer = Filament.filament.computeFrames ? new FilamentClassWriter(ClassWriter.COMPUTE_FRAMES, parent) : new ClassWriter(ClassWriter.COMPUTE_MAXS);
+					node.accept(Injectors.chainVisitors(node, writer));
+					buf = writer.toByteArray();
+				} else {
+					buf = getOriginalBytes(node);
+					ClassReader reader = new ClassReader(buf);
+					ClassWriter writer = Filament.filament.computeFrames ? new FilamentClassWriter(reader, ClassWriter.COMPUTE_FRAMES, parent) : new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+					ClassVisitor cv = Injectors.chainVisitors(node, writer);
+					if (cv != writer) {
+						// Unchanged methods and the constant pool are copied straight from the reader
+						reader.accept(cv, 0);
+						buf = writer.toByteArray();
+					}
+				}
+				if (cache != null) cache.put(node, buf);
+			}
+			Filament.filament.transformed.put(name, buf);
+			return buf;
+		}
 	}
 
 	public InputStream getResourceAsStream(String name) {
 		if (name.endsWith(".class")) {
-			byte[] buf = getClassBytes(name.substring(0, name.length() - 6).replace('/', '.'));
+			byte[] buf = transform(name.substring(0, name.length() - 6).replace('/', '.'));
 			if (buf != null) return new ByteArrayInputStream(buf);
 		}
 		return getResourceAsStreamOriginal(name);
@@ -312,8 +564,24 @@ public class FilamentClassLoader extends URLClassLoader {
 	
 	public InputStream getResourceAsStreamOriginal(String name) {
 		InputStream stream = null;
+		// The delegation parent comes first, as in super.getResourceAsStream, and mapped jars stand in for the URL lookup
+		ClassLoader delegate = getParent();
+		if (delegate != null) {
+			try {
+				stream = delegate.getResourceAsStream(name);
+			} catch (Throwable e) {}
+			if (stream != null) return stream;
+		}
+		for (MappedJarFile jar : mappedJars) {
+			try {
+				stream = jar.getInputStream(name);
+			} catch (Throwable e) {}
+			if (stream != null) return stream;
+		}
 		try {
-			stream = super.getResourceAsStream(name);
+			// The URL lookup alone, since super.getResourceAsStream would ask the delegation parent again and then transform the class through findResource
+			URL url = super.findResource(name);
+			if (url != null) stream = url.openStream();
 		} catch (Throwable e) {}
 		if (stream != null) return stream;
 		try {
@@ -328,7 +596,7 @@ public class FilamentClassLoader extends URLClassLoader {
 
 	public URL findResource(String name) {
 		byte[] buf = null;
-		if (name.endsWith(".class")) buf = getClassBytes(name.substring(0, name.length() - 6).replace('/', '.'));
+		if (name.endsWith(".class")) buf = transform(name.substring(0, name.length() - 6).replace('/', '.'));
 		if (buf == null) {
 			URL url = null;
 			try {
@@ -347,6 +615,42 @@ public class FilamentClassLoader extends URLClassLoader {
 		return getResourceFromBytes(name, buf);
 	}
 
+	/**
+	 * Get the original bytes of a class that no injector has modified, with the same access changes made when it was loaded.
+	 * Unlike classes written from the tree, the debug information of the class is kept.
+	 */
+	private static byte[] getOriginalBytes(FilamentClassNode node) {
+		byte[] buf = node.getBytes().clone();
+		int offset = 10;
+		int count = ((buf[8] & 0xFF) << 8) | (buf[9] & 0xFF);
+		for (int i = 1; i < count; i++) {
+			switch (buf[offset]) {
+			case 1: // Utf8
+				offset += 3 + (((buf[offset + 1] & 0xFF) << 8) | (buf[offset + 2] & 0xFF));
+				break;
+			case 5: // Long
+			case 6: // Double
+				offset += 9;
+				i++;
+				break;
+			case 15: // MethodHandle
+				offset += 4;
+				break;
+			case 7: // Class
+			case 8: // String
+			case 16: // MethodType
+				offset += 3;
+				break;
+			default: // Integer, Float, Fieldref, Methodref, InterfaceMethodref, NameAndType, InvokeDynamic
+				offset += 5;
+				break;
+			}
+		}
+		buf[offset] = (byte) (node.access >> 8);
+		buf[offset + 1] = (byte) node.access;
+		return buf;
+	}
+
 	/**
 	 * Gets the URL associated with a resource.
 	 * The resource does not have to exist as an actual file on the system,
@@ -376,4 +680,77 @@ public class FilamentClassLoader extends URLClassLoader {
 			return null;
 		}
 	}
+
+	private static abstract class ClassSource {
+		protected final int size;
+
+		protected ClassSource(int size) {
+			this.size = size;
+		}
+
+		protected abstract FilamentClassNode parse(int index) throws IOException;
+
+		protected final FilamentClassNode load(int index) throws IOException {
+			FilamentClassNode node = parse(index);
+			HookStream stream = Filament.filament.stream;
+			if (stream != null) stream.offer(node);
+			return node;
+		}
+	}
+
+	private static final class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ClassSource source;
+		private final FilamentClassNode[] nodes;
+		private final int start, end;
+		private final AtomicReference<IOException> failure;
+
+		private ParseTask(ClassSource source, FilamentClassNode[] nodes, int start, int end, AtomicReference<IOException> failure) {
+			this.source = source;
+			this.nodes = nodes;
+			this.start = start;
+			this.end = end;
+			this.failure = failure;
+		}
+
+		protected void compute() {
+			if (end - start > PARSE_BATCH) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new ParseTask(source, nodes, start, mid, failure), new ParseTask(source, nodes, mid, end, failure));
+				return;
+			}
+			for (int i = start; i < end && failure.get() == null; i++) {
+				try {
+					nodes[i] = source.load(i);
+				} catch (IOException e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+		}
+	}
+
+	private final class TransformTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String[] names;
+		private final int start, end;
+
+		private TransformTask(String[] names, int start, int end) {
+			this.names = names;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start > TRANSFORM_BATCH) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new TransformTask(names, start, mid), new TransformTask(names, mid, end));
+				return;
+			}
+			for (int i = start; i < end; i++) {
+				precompute(names[i]);
+			}
+		}
+	}
 }
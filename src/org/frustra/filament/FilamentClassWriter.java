@@ -0,0 +1,209 @@
+package org.frustra.filament;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * FilamentClassWriter is a {@link ClassWriter} that finds common super classes without loading any classes.
+ * <p>
+ * Classes loaded into filament are looked up in the class table, as they currently are.
+ * Any other class is looked up by reading the header of its class file from the parent class loader, which is remembered for later lookups
+ * by writers using the same parent. The header is parsed directly rather than through a {@link ClassReader}, so class files newer than ASM supports,
+ * such as those of a recent JDK, are read the same way. Only if the class file can't be found or parsed is the class loaded, without being initialized.
+ * A class that can't be found is treated as a direct subclass of <code>java/lang/Object</code>.
+ *
+ * @see FilamentClassLoader#setComputeFrames(boolean)
+ */
+final class FilamentClassWriter extends ClassWriter {
+	private static final String OBJECT = "java/lang/Object";
+	private static final Map<ClassLoader, ConcurrentHashMap<String, Header>> parentHeaders = Collections.synchronizedMap(new WeakHashMap<ClassLoader, ConcurrentHashMap<String, Header>>());
+
+	private final ClassLoader parent;
+	private final ConcurrentHashMap<String, Header> headers;
+
+	/**
+	 * Create a writer for a new class.
+	 *
+	 * @param flags the ASM writer flags, such as {@link ClassWriter#COMPUTE_FRAMES}
+	 * @param parent the class loader used to find classes that aren't loaded into filament
+	 */
+	FilamentClassWriter(int flags, ClassLoader parent) {
+		super(flags);
+		this.parent = parent;
+		this.headers = getHeaders(parent);
+	}
+
+	/**
+	 * Create a writer that copies unchanged methods straight from a reader.
+	 *
+	 * @param reader the reader of the original class
+	 * @param flags the ASM writer flags, such as {@link ClassWriter#COMPUTE_FRAMES}
+	 * @param parent the class loader used to find classes that aren't loaded into filament
+	 */
+	FilamentClassWriter(ClassReader reader, int flags, ClassLoader parent) {
+		super(reader, flags);
+		this.parent = parent;
+		this.headers = getHeaders(parent);
+	}
+
+	/**
+	 * Get the remembered headers of classes found through a parent class loader.
+	 * The table is dropped along with the class loader, and never shared with a different parent that may define the same names differently.
+	 */
+	private static ConcurrentHashMap<String, Header> getHeaders(ClassLoader parent) {
+		ClassLoader key = parent == null ? ClassLoader.getSystemClassLoader() : parent;
+		synchronized (parentHeaders) {
+			ConcurrentHashMap<String, Header> headers = parentHeaders.get(key);
+			if (headers == null) {
+				headers = new ConcurrentHashMap<String, Header>();
+				parentHeaders.put(key, headers);
+			}
+			return headers;
+		}
+	}
+
+	protected String getCommonSuperClass(String type1, String type2) {
+		if (type1.equals(type2)) return type1;
+		// The verifier treats every interface as Object
+		if (isInterface(type1) || isInterface(type2)) return OBJECT;
+		// Adding to a set also stops at a class that was already visited, in case injectors created a cycle
+		HashSet<String> ancestors = new HashSet<String>();
+		for (String type = type1; type != null && ancestors.add(type); type = getSuperName(type)) {}
+		HashSet<String> visited = new HashSet<String>();
+		for (String type = type2; type != null && visited.add(type); type = getSuperName(type)) {
+			if (ancestors.contains(type)) return type;
+		}
+		return OBJECT;
+	}
+
+	private boolean isInterface(String type) {
+		FilamentClassNode node = Filament.filament.classes.get(type.replace('/', '.'));
+		if (node != null) return (node.access & Opcodes.ACC_INTERFACE) != 0;
+		return getHeader(type).isInterface;
+	}
+
+	private String getSuperName(String type) {
+		if (type.equals(OBJECT)) return null;
+		FilamentClassNode node = Filament.filament.classes.get(type.replace('/', '.'));
+		if (node != null) return node.superName;
+		return getHeader(type).superName;
+	}
+
+	/**
+	 * Find the super class of a class that isn't loaded into filament, and whether it is an interface.
+	 */
+	private Header getHeader(String type) {
+		Header header = headers.get(type);
+		if (header != null) return header;
+		header = readHeader(type);
+		if (header == null) header = loadHeader(type);
+		if (header == null) header = new Header(OBJECT, false);
+		headers.put(type, header);
+		return header;
+	}
+
+	private Header readHeader(String type) {
+		InputStream in = parent == null ? ClassLoader.getSystemResourceAsStream(type + ".class") : parent.getResourceAsStream(type + ".class");
+		if (in == null) return null;
+		try {
+			return parseHeader(new DataInputStream(new BufferedInputStream(in)));
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Read the super class and access flags of a class file, skipping over the rest of the constant pool.
+	 * The layout of the constant pool hasn't changed since it was defined, besides new tags, so any version of a class file can be read.
+	 * 
+	 * @return the header of the class, or <code>null</code> if the class file has a constant the parser doesn't know
+	 */
+	private static Header parseHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != 0xCAFEBABE) return null;
+		in.readInt(); // minor and major version
+		int count = in.readUnsignedShort();
+		String[] strings = new String[count];
+		int[] classes = new int[count];
+		for (int i = 1; i < count; i++) {
+			switch (in.readUnsignedByte()) {
+			case 1: // Utf8
+				strings[i] = in.readUTF();
+				break;
+			case 7: // Class
+				classes[i] = in.readUnsignedShort();
+				break;
+			case 8: // String
+			case 16: // MethodType
+			case 19: // Module
+			case 20: // Package
+				in.readUnsignedShort();
+				break;
+			case 15: // MethodHandle
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case 10: // Methodref
+			case 11: // InterfaceMethodref
+			case 12: // NameAndType
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				in.readInt();
+				break;
+			case 5: // Long
+			case 6: // Double
+				in.readLong();
+				i++;
+				break;
+			default:
+				return null;
+			}
+		}
+		int access = in.readUnsignedShort();
+		in.readUnsignedShort(); // this class
+		int superClass = in.readUnsignedShort();
+		String superName = superClass == 0 ? null : strings[classes[superClass]];
+		return new Header(superName, (access & Opcodes.ACC_INTERFACE) != 0);
+	}
+
+	private Header loadHeader(String type) {
+		try {
+			Class<?> cls = Class.forName(type.replace('/', '.'), false, parent == null ? ClassLoader.getSystemClassLoader() : parent);
+			Class<?> superClass = cls.getSuperclass();
+			if (cls.isInterface()) return new Header(OBJECT, true);
+			return new Header(superClass == null ? null : superClass.getName().replace('.', '/'), false);
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	private static final class Header {
+		private final String superName;
+		private final boolean isInterface;
+
+		private Header(String superName, boolean isInterface) {
+			this.superName = superName;
+			this.isInterface = isInterface;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.frustra.filament;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.HookProvider;
+
+/**
+ * HookHistory remembers the result of the last successful hooking run, so hooks can be resolved again incrementally after the loaded classes change.
+ * <p>
+ * It records the digest of every class that was hooked, a snapshot of the resolved hooks,
+ * and for each provider the class it matched and the hooks it set.
+ *
+ * @see Hooks#rehook()
+ */
+final class HookHistory {
+	private final byte[] snapshot;
+	private final HashMap<String, byte[]> classes = new HashMap<String, byte[]>();
+	private final IdentityHashMap<HookProvider, Record> records;
+
+	private HookHistory(byte[] snapshot, IdentityHashMap<HookProvider, Record> records) {
+		this.snapshot = snapshot;
+		this.records = records;
+	}
+
+	/**
+	 * Remember the result of a hooking run.
+	 *
+	 * @param nodes the classes that were hooked
+	 * @param hooks the resolved hooks
+	 * @param records what each provider matched and set
+	 * @return the history, or <code>null</code> if some hook values can't be stored in a snapshot
+	 */
+	static HookHistory capture(FilamentClassNode[] nodes, Map<String, Object> hooks, IdentityHashMap<HookProvider, Record> records) {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try {
+			HookSnapshot.write(new DataOutputStream(buf), hooks);
+		} catch (IOException e) {
+			if (Filament.filament.debug) System.out.println("Hooks can't be resolved incrementally: " + e.getMessage());
+			return null;
+		}
+		HookHistory history = new HookHistory(buf.toByteArray(), records);
+		for (FilamentClassNode node : nodes) {
+			history.classes.put(node.name, node.getDigest());
+		}
+		return history;
+	}
+
+	/**
+	 * Find the classes that were added or changed since the hooking run.
+	 *
+	 * @param nodes the classes currently loaded
+	 * @return the added or changed classes, in the same order
+	 */
+	FilamentClassNode[] findChanged(FilamentClassNode[] nodes) {
+		List<FilamentClassNode> changed = new ArrayList<FilamentClassNode>();
+		for (FilamentClassNode node : nodes) {
+			byte[] digest = classes.get(node.name);
+			if (digest == null || !Arrays.equals(digest, node.getDigest())) changed.add(node);
+		}
+		return changed.toArray(new FilamentClassNode[changed.size()]);
+	}
+
+	/**
+	 * Check if a class is still loaded with the same bytes as during the hooking run.
+	 *
+	 * @param name the internal name of a class
+	 * @return <code>true</code> if the class is unchanged
+	 */
+	boolean isUnchanged(String name) {
+		byte[] digest = classes.get(name);
+		if (digest == null) return false;
+		FilamentClassNode node = Filament.filament.classes.get(name.replace('/', '.'));
+		return node != null && Arrays.equals(digest, node.getDigest());
+	}
+
+	/**
+	 * Get what a provider matched and set during the hooking run.
+	 *
+	 * @param hook a hook provider
+	 * @return the provider's record, or <code>null</code> if it wasn't part of the run
+	 */
+	Record get(HookProvider hook) {
+		return records.get(hook);
+	}
+
+	/**
+	 * Resolve the remembered hooks against the currently loaded classes.
+	 *
+	 * @return the hooks that could still be resolved
+	 */
+	Map<String, Object> rebind() {
+		try {
+			return HookSnapshot.rebind(snapshot);
+		} catch (IOException e) {
+			return new HashMap<String, Object>();
+		}
+	}
+
+	static final class Record {
+		/**
+		 * The internal name of the class matched by the provider, or <code>null</code>.
+		 */
+		final String matched;
+		/**
+		 * The hooks set by the provider, in the order they were set.
+		 */
+		final List<String> written;
+		/**
+		 * <code>true</code> if the provider didn't complete successfully.
+		 */
+		final boolean failed;
+
+		Record(String matched, List<String> written, boolean failed) {
+			this.matched = matched;
+			this.written = written;
+			this.failed = failed;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.frustra.filament;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.HookProvider;
+import org.frustra.filament.hooking.types.WritesHooks;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * HookResolver runs deferred hook providers the first time one of their hooks is requested.
+ * <p>
+ * Hooks are traced back to their provider through {@link WritesHooks}.
+ * A provider is matched against the classes meeting its declared requirements, after its deferred dependencies have been resolved.
+ * It sees each of those classes as it was originally loaded, parsed again from its original bytes,
+ * so resolving a hook never reads or waits for a class another thread is injecting.
+ * The parsed copies are dropped once the provider completes, so only the members it hooked are kept.
+ * Class hooks set by the provider are bound to the loaded classes, while field and method hooks keep the original members.
+ *
+ * @see Hooks#setLazy(boolean)
+ */
+final class HookResolver {
+	private final FilamentClassNode[] nodes;
+	private final IdentityHashMap<Object, FilamentClassNode> owners = new IdentityHashMap<Object, FilamentClassNode>();
+	private final HookSchedule schedule;
+	private final ClassIndex index;
+	private final List<HookProvider> deferred;
+	private final HashMap<String, HookProvider> writers = new HashMap<String, HookProvider>();
+	private final IdentityHashMap<HookProvider, Boolean> pending = new IdentityHashMap<HookProvider, Boolean>();
+	private final IdentityHashMap<HookProvider, BadHookException> failed = new IdentityHashMap<HookProvider, BadHookException>();
+
+	/**
+	 * Prepare to resolve the hooks of deferred providers on demand.
+	 * No class is parsed until a provider is run.
+	 *
+	 * @param nodes the classes to hook
+	 * @param schedule the schedule of every provider, including the deferred ones
+	 * @param deferred the providers that weren't run, in schedule order
+	 */
+	HookResolver(FilamentClassNode[] nodes, HookSchedule schedule, List<HookProvider> deferred) {
+		this.nodes = nodes;
+		this.schedule = schedule;
+		this.deferred = deferred;
+		this.index = new ClassIndex(nodes, deferred);
+		for (HookProvider hook : deferred) {
+			pending.put(hook, true);
+			for (String key : hook.getClass().getAnnotation(WritesHooks.class).value()) {
+				if (!writers.containsKey(key)) writers.put(key, hook);
+			}
+		}
+	}
+
+	/**
+	 * Run the provider declaring a hook, if it hasn't been run yet.
+	 *
+	 * @param hook the name of a hook
+	 * @return <code>true</code> if a deferred provider declares the hook
+	 * @throws BadHookException if the provider or one of its dependencies failed
+	 */
+	synchronized boolean resolve(String hook) throws BadHookException {
+		HookProvider provider = writers.get(hook);
+		if (provider == null) return false;
+		resolve(provider);
+		return true;
+	}
+
+	/**
+	 * Run every deferred provider that hasn't been run yet.
+	 *
+	 * @throws BadHookException if a provider failed
+	 */
+	synchronized void resolveAll() throws BadHookException {
+		for (HookProvider hook : deferred) {
+			resolve(hook);
+		}
+	}
+
+	/**
+	 * Find the classes containing field and method hooks set by deferred providers, which belong to the original class trees.
+	 *
+	 * @param owners the hooked members, mapped to their class if it has already been found
+	 */
+	synchronized void findOwners(Map<Object, FilamentClassNode> owners) {
+		for (Entry<Object, FilamentClassNode> entry : this.owners.entrySet()) {
+			if (owners.containsKey(entry.getKey()) && owners.get(entry.getKey()) == null) owners.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void resolve(HookProvider hook) throws BadHookException {
+		BadHookException error = failed.get(hook);
+		if (error != null) throw error;
+		if (!pending.containsKey(hook)) return;
+		for (HookProvider dep : schedule.getDependencies(hook)) {
+			resolve(dep);
+		}
+		pending.remove(hook);
+		if (Filament.filament.debug) System.out.println("Resolving deferred hook provider: " + hook);
+
+		ArrayList<HookProvider> list = new ArrayList<HookProvider>();
+		list.add(hook);
+		hook.reset();
+		BitSet candidates = index.candidates(hook);
+		if (candidates == null) {
+			candidates = new BitSet(nodes.length);
+			candidates.set(0, nodes.length);
+		}
+		// Each original is parsed again from the bytes of its loaded class, which it is bound back to
+		FilamentClassNode[] originals = new FilamentClassNode[candidates.cardinality()];
+		IdentityHashMap<Object, Object> loaded = new IdentityHashMap<Object, Object>();
+		int count = 0;
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			byte[] bytes = nodes[i].getBytes();
+			originals[count] = bytes == null ? nodes[i] : FilamentClassNode.loadFromBytes(bytes, true);
+			loaded.put(originals[count++], nodes[i]);
+		}
+		// The candidates are already selected, so the plan only needs to check each provider's requirements again
+		HookRun.scan(new HookingPlan(list, null), originals);
+		List<String> written = Hooks.startRecording(loaded);
+		try {
+			hook.doComplete();
+		} catch (BadHookException e) {
+			failed.put(hook, e);
+			throw e;
+		} finally {
+			Hooks.stopRecording();
+		}
+		addOwners(written, originals, loaded);
+	}
+
+	/**
+	 * Remember the loaded class of each original member hooked by a provider, before the original trees are dropped.
+	 * The classes containing hooked members are fully parsed first, filling in the hooked methods.
+	 */
+	@SuppressWarnings("unchecked")
+	private void addOwners(List<String> written, FilamentClassNode[] originals, IdentityHashMap<Object, Object> loaded) {
+		IdentityHashMap<Object, Boolean> members = new IdentityHashMap<Object, Boolean>();
+		for (String key : written) {
+			Object value = Hooks.hooks.get(key);
+			if (value instanceof FieldNode || value instanceof MethodNode) members.put(value, true);
+		}
+		if (members.isEmpty()) return;
+		for (FilamentClassNode original : originals) {
+			FilamentClassNode node = (FilamentClassNode) loaded.get(original);
+			if (original == node || original.getLevel() < FilamentClassNode.MEMBERS) continue;
+			boolean owner = false;
+			for (FieldNode f : (List<FieldNode>) original.fields) {
+				if (members.containsKey(f)) {
+					owners.put(f, node);
+					owner = true;
+				}
+			}
+			for (MethodNode m : (List<MethodNode>) original.methods) {
+				if (members.containsKey(m)) {
+					owners.put(m, node);
+					owner = true;
+				}
+			}
+			// Hooked methods keep their code, like the members of a class parsed during a hooking run
+			if (owner) original.expand(FilamentClassNode.FULL);
+		}
+	}
+}
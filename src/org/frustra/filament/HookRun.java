@@ -0,0 +1,288 @@
+package org.frustra.filament;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.ClassProvider;
+import org.frustra.filament.hooking.types.HookProvider;
+
+/**
+ * HookRun resolves every hook of the scheduled providers, one stage at a time.
+ * <p>
+ * When it is given the {@link HookHistory} of a previous run, providers are only matched against the whole set of classes again
+ * if the class they matched changed, one of their dependencies set different hooks, or one of their hooks can't be resolved anymore.
+ * Every other provider is first matched against just the added and changed classes. If it finds nothing there,
+ * it would find the same single match as before, so the hooks it set are kept.
+ * The result is the same as matching every provider against every class.
+ * <p>
+ * When it is given seeds, each seeded provider is first matched against only the class it matched before.
+ * If it matches that class exactly once, the match is accepted without checking any other class.
+ * Only providers without a seed, or whose seeded class no longer matches, are matched against every class.
+ *
+ * @see Hooks
+ */
+final class HookRun {
+	private static final int HOOK_BATCH = 32;
+
+	private final FilamentClassNode[] nodes;
+	private final HookSchedule schedule;
+	private final HookHistory previous;
+	private final FilamentClassNode[] changed;
+	private final Map<String, Object> rebound;
+	private final IdentityHashMap<HookProvider, HookHistory.Record> records = new IdentityHashMap<HookProvider, HookHistory.Record>();
+	private final IdentityHashMap<HookProvider, Boolean> dirty = new IdentityHashMap<HookProvider, Boolean>();
+	private final Map<String, String> seeds;
+	private final IdentityHashMap<HookProvider, Boolean> matched = new IdentityHashMap<HookProvider, Boolean>();
+	private int validated = 0;
+	private ClassIndex index = null;
+	private ClassIndex changedIndex = null;
+	private int scans = 0;
+
+	/**
+	 * Prepare to resolve hooks.
+	 * Injected classes must already be reverted, since the hooks of the previous run are resolved again here.
+	 *
+	 * @param nodes the classes to hook
+	 * @param schedule the scheduled hook providers
+	 * @param previous the history of the last run, or <code>null</code> to match every provider against every class
+	 * @param seeds the class each provider is expected to match by provider class name, or <code>null</code>
+	 * @param matched the providers that have already been matched against every class, such as by a {@link HookStream}
+	 */
+	HookRun(FilamentClassNode[] nodes, HookSchedule schedule, HookHistory previous, Map<String, String> seeds, List<HookProvider> matched) {
+		this.nodes = nodes;
+		this.schedule = schedule;
+		this.previous = previous;
+		this.seeds = seeds;
+		for (HookProvider hook : matched) {
+			this.matched.put(hook, true);
+		}
+		this.changed = previous == null ? null : previous.findChanged(nodes);
+		this.rebound = previous == null ? null : previous.rebind();
+		if (previous != null && Filament.filament.debug) {
+			System.out.println(changed.length + " of " + nodes.length + " classes changed since the last hooking run");
+		}
+	}
+
+	/**
+	 * Resolve the hooks of every stage, in order.
+	 *
+	 * @throws BadHookException if a provider failed
+	 */
+	void run() throws BadHookException {
+		for (int stage = 0; stage < schedule.stages.size(); stage++) {
+			runStage(stage + 1, schedule.stages.get(stage));
+		}
+		if (Filament.filament.debug) System.out.println("Hooking ran " + scans + " scans" + (seeds == null ? "" : ", " + validated + " seeded providers were validated"));
+	}
+
+	/**
+	 * Get the class each provider matched during this run, to be used as seeds for a later run.
+	 *
+	 * @return the internal name of each matched class, by provider class name
+	 */
+	Map<String, String> getSeeds() {
+		TreeMap<String, String> seeds = new TreeMap<String, String>();
+		for (Entry<HookProvider, HookHistory.Record> entry : records.entrySet()) {
+			HookHistory.Record record = entry.getValue();
+			if (!record.failed && record.matched != null) seeds.put(entry.getKey().getClass().getName(), record.matched);
+		}
+		return seeds;
+	}
+
+	/**
+	 * Remember the result of this run for the next incremental run.
+	 *
+	 * @return the history of this run
+	 */
+	HookHistory getHistory() {
+		return HookHistory.capture(nodes, Hooks.hooks, records);
+	}
+
+	private void runStage(int stage, ArrayList<HookProvider> hooks) throws BadHookException {
+		if (Filament.filament.debug) System.out.println("Hooking stage " + stage + ": " + hooks);
+		ArrayList<HookProvider> full = new ArrayList<HookProvider>();
+		IdentityHashMap<HookProvider, Boolean> kept = new IdentityHashMap<HookProvider, Boolean>();
+		for (HookProvider hook : hooks) {
+			if (matched.containsKey(hook)) continue;
+			hook.reset();
+			if (canKeep(hook)) {
+				kept.put(hook, true);
+			} else {
+				full.add(hook);
+			}
+		}
+
+		if (!kept.isEmpty() && changed.length > 0) {
+			ArrayList<HookProvider> check = new ArrayList<HookProvider>();
+			for (HookProvider hook : hooks) {
+				if (kept.containsKey(hook)) check.add(hook);
+			}
+			if (changedIndex == null) changedIndex = new ClassIndex(changed, providers());
+			scan(new HookingPlan(check, changedIndex), changed);
+			for (HookProvider hook : check) {
+				if (hook.getMatchCount() > 0 || hook.getError() != null) {
+					kept.remove(hook);
+					hook.reset();
+					full.add(hook);
+				}
+			}
+		}
+		if (seeds != null && !full.isEmpty()) validate(full);
+		if (!full.isEmpty()) {
+			if (index == null) index = new ClassIndex(nodes, providers());
+			scans++;
+			scan(new HookingPlan(full, index), nodes);
+		}
+
+		Exception firstError = null;
+		for (HookProvider hook : hooks) {
+			if (kept.containsKey(hook)) {
+				HookHistory.Record record = previous.get(hook);
+				for (String key : record.written) {
+					Hooks.hooks.put(key, rebound.get(key));
+				}
+				records.put(hook, record);
+				continue;
+			}
+			List<String> written = Hooks.startRecording();
+			boolean failed = false;
+			try {
+				hook.doComplete();
+			} catch (BadHookException e) {
+				failed = true;
+				if (firstError == null) firstError = e;
+				if (Filament.filament.debug) System.err.println("Failed hook provider: " + hook + ", Cause: " + e.getProblem());
+			} finally {
+				Hooks.stopRecording();
+			}
+			FilamentClassNode matched = hook instanceof ClassProvider ? ((ClassProvider) hook).getMatchedClass() : null;
+			records.put(hook, new HookHistory.Record(matched == null ? null : matched.name, written, failed));
+			if (previous != null && changedOutput(hook, written)) dirty.put(hook, true);
+		}
+		if (firstError != null) {
+			throw new BadHookException("Errors occured while processing hooking stage " + stage, firstError);
+		}
+	}
+
+	/**
+	 * Match seeded providers against their seeded class only, and remove the ones that matched it exactly once from the list.
+	 */
+	private void validate(ArrayList<HookProvider> hooks) {
+		LinkedHashMap<String, ArrayList<HookProvider>> byClass = new LinkedHashMap<String, ArrayList<HookProvider>>();
+		for (HookProvider hook : hooks) {
+			String seed = seeds.get(hook.getClass().getName());
+			if (seed == null || !(hook instanceof ClassProvider)) continue;
+			ArrayList<HookProvider> list = byClass.get(seed);
+			if (list == null) {
+				list = new ArrayList<HookProvider>();
+				byClass.put(seed, list);
+			}
+			list.add(hook);
+		}
+		for (Entry<String, ArrayList<HookProvider>> entry : byClass.entrySet()) {
+			FilamentClassNode node = Filament.filament.classes.get(entry.getKey().replace('/', '.'));
+			if (node == null) continue;
+			FilamentClassNode[] single = new FilamentClassNode[] { node };
+			new HookingPlan(entry.getValue(), new ClassIndex(single, entry.getValue())).scan(single, 0, 1);
+			for (HookProvider hook : entry.getValue()) {
+				if (hook.getMatchCount() == 1 && hook.getError() == null) {
+					hooks.remove(hook);
+					validated++;
+				} else {
+					hook.reset();
+				}
+			}
+		}
+	}
+
+	private boolean canKeep(HookProvider hook) {
+		if (previous == null) return false;
+		HookHistory.Record record = previous.get(hook);
+		if (record == null || record.failed || record.matched == null) return false;
+		if (!previous.isUnchanged(record.matched)) return false;
+		for (String key : record.written) {
+			if (!rebound.containsKey(key)) return false;
+		}
+		for (HookProvider dep : schedule.getDependencies(hook)) {
+			if (dirty.containsKey(dep)) return false;
+		}
+		return true;
+	}
+
+	private boolean changedOutput(HookProvider hook, List<String> written) {
+		HookHistory.Record record = previous.get(hook);
+		if (record == null || record.failed) return true;
+		if (!record.written.equals(written)) return true;
+		for (String key : written) {
+			Object before = rebound.get(key);
+			Object after = Hooks.hooks.get(key);
+			if (before == null || after == null) return true;
+			if (before instanceof FilamentClassNode || after instanceof FilamentClassNode) {
+				if (!before.equals(after)) return true;
+			} else if (before != after && !before.equals(after)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ArrayList<HookProvider> providers() {
+		ArrayList<HookProvider> providers = new ArrayList<HookProvider>();
+		for (ArrayList<HookProvider> stage : schedule.stages) {
+			providers.addAll(stage);
+		}
+		return providers;
+	}
+
+	/**
+	 * Match the providers of a plan against a set of classes, splitting the classes between threads if parallelism is enabled.
+	 *
+	 * @param plan the providers to match
+	 * @param nodes the classes to match them against
+	 */
+	static void scan(HookingPlan plan, FilamentClassNode[] nodes) {
+		if (Filament.filament.parallelism > 1 && nodes.length > HOOK_BATCH) {
+			ForkJoinPool pool = new ForkJoinPool(Filament.filament.parallelism);
+			try {
+				pool.invoke(new HookingTask(plan, nodes, 0, nodes.length));
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			plan.scan(nodes, 0, nodes.length);
+		}
+	}
+
+	private static final class HookingTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final HookingPlan plan;
+		private final FilamentClassNode[] nodes;
+		private final int start, end;
+
+		private HookingTask(HookingPlan plan, FilamentClassNode[] nodes, int start, int end) {
+			this.plan = plan;
+			this.nodes = nodes;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start > HOOK_BATCH) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new HookingTask(plan, nodes, start, mid), new HookingTask(plan, nodes, mid, end));
+				return;
+			}
+			plan.scan(nodes, start, end);
+		}
+	}
+}
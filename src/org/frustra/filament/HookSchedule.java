@@ -0,0 +1,191 @@
+package org.frustra.filament;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.types.HookProvider;
+import org.frustra.filament.hooking.types.HookingPass;
+import org.frustra.filament.hooking.types.ReadsHooks;
+import org.frustra.filament.hooking.types.WritesHooks;
+
+/**
+ * HookSchedule groups hook providers into stages, where every provider in a stage is matched during the same scan of the classes.
+ * <p>
+ * A provider declaring {@link ReadsHooks} depends on the providers declaring {@link WritesHooks} for those hooks,
+ * and on any provider from an earlier {@link HookingPass} that doesn't declare what it writes.
+ * A provider without {@link ReadsHooks} depends on every provider from an earlier pass, the same as before dependencies could be declared.
+ * Each provider is placed in the stage after the last of its dependencies, so the number of scans is the depth of the dependency graph.
+ *
+ * @see Hooks
+ */
+final class HookSchedule {
+	/**
+	 * The providers of each stage, in order of their hooking pass and then registration.
+	 */
+	final List<ArrayList<HookProvider>> stages;
+	private final IdentityHashMap<HookProvider, ArrayList<HookProvider>> dependencies;
+
+	private HookSchedule(List<ArrayList<HookProvider>> stages, IdentityHashMap<HookProvider, ArrayList<HookProvider>> dependencies) {
+		this.stages = stages;
+		this.dependencies = dependencies;
+	}
+
+	/**
+	 * Get the providers that must be completed before a provider is matched.
+	 *
+	 * @param hook a scheduled hook provider
+	 * @return the provider's dependencies
+	 */
+	List<HookProvider> getDependencies(HookProvider hook) {
+		return dependencies.get(hook);
+	}
+
+	/**
+	 * Find the providers that can be resolved on demand instead of during a hooking run.
+	 * These are the providers declaring {@link WritesHooks} that no provider without {@link WritesHooks} depends on, directly or not,
+	 * since only the hooks of declared writers can be traced back to their provider.
+	 * Providers without declared requirements, such as {@link org.frustra.filament.hooking.types.RequireConstant RequireConstant}, are never deferred,
+	 * since resolving one would parse a copy of every class again.
+	 *
+	 * @return the deferrable providers, in schedule order
+	 */
+	List<HookProvider> findDeferrable() {
+		IdentityHashMap<HookProvider, Boolean> eager = new IdentityHashMap<HookProvider, Boolean>();
+		for (ArrayList<HookProvider> stage : stages) {
+			for (HookProvider hook : stage) {
+				if (!hook.getClass().isAnnotationPresent(WritesHooks.class) || Prefilter.of(hook) == null) markEager(hook, eager);
+			}
+		}
+		ArrayList<HookProvider> deferrable = new ArrayList<HookProvider>();
+		for (ArrayList<HookProvider> stage : stages) {
+			for (HookProvider hook : stage) {
+				if (!eager.containsKey(hook)) deferrable.add(hook);
+			}
+		}
+		return deferrable;
+	}
+
+	private void markEager(HookProvider hook, IdentityHashMap<HookProvider, Boolean> eager) {
+		if (eager.put(hook, true) != null) return;
+		for (HookProvider dep : dependencies.get(hook)) {
+			markEager(dep, eager);
+		}
+	}
+
+	/**
+	 * Get a schedule without some of the providers.
+	 * None of the remaining providers may depend on a removed provider.
+	 *
+	 * @param removed the providers to leave out
+	 * @return the schedule of the remaining providers, without empty stages
+	 */
+	HookSchedule without(List<HookProvider> removed) {
+		IdentityHashMap<HookProvider, Boolean> skip = new IdentityHashMap<HookProvider, Boolean>();
+		for (HookProvider hook : removed) {
+			skip.put(hook, true);
+		}
+		ArrayList<ArrayList<HookProvider>> result = new ArrayList<ArrayList<HookProvider>>();
+		for (ArrayList<HookProvider> stage : stages) {
+			ArrayList<HookProvider> kept = new ArrayList<HookProvider>();
+			for (HookProvider hook : stage) {
+				if (!skip.containsKey(hook)) kept.add(hook);
+			}
+			if (!kept.isEmpty()) result.add(kept);
+		}
+		return new HookSchedule(result, dependencies);
+	}
+
+	/**
+	 * Split the registered hook providers into stages.
+	 *
+	 * @param passes the registered hook providers, by hooking pass
+	 * @return the schedule of the providers
+	 * @throws BadHookException if the declared dependencies form a cycle
+	 */
+	static HookSchedule build(TreeMap<Integer, ArrayList<HookProvider>> passes) throws BadHookException {
+		ArrayList<HookProvider> providers = new ArrayList<HookProvider>();
+		ArrayList<Integer> passOf = new ArrayList<Integer>();
+		for (Entry<Integer, ArrayList<HookProvider>> pass : passes.entrySet()) {
+			for (HookProvider hook : pass.getValue()) {
+				providers.add(hook);
+				passOf.add(pass.getKey());
+			}
+		}
+
+		int count = providers.size();
+		HashMap<String, ArrayList<Integer>> writers = new HashMap<String, ArrayList<Integer>>();
+		boolean[] declaresWrites = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			WritesHooks writes = providers.get(i).getClass().getAnnotation(WritesHooks.class);
+			if (writes == null) continue;
+			declaresWrites[i] = true;
+			for (String hook : writes.value()) {
+				ArrayList<Integer> list = writers.get(hook);
+				if (list == null) {
+					list = new ArrayList<Integer>();
+					writers.put(hook, list);
+				}
+				list.add(i);
+			}
+		}
+
+		ArrayList<ArrayList<Integer>> dependencies = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < count; i++) {
+			ArrayList<Integer> deps = new ArrayList<Integer>();
+			ReadsHooks reads = providers.get(i).getClass().getAnnotation(ReadsHooks.class);
+			for (int j = 0; j < count; j++) {
+				if (passOf.get(j) < passOf.get(i) && (reads == null || !declaresWrites[j])) deps.add(j);
+			}
+			if (reads != null) {
+				for (String hook : reads.value()) {
+					ArrayList<Integer> list = writers.get(hook);
+					if (list == null) continue;
+					for (int j : list) {
+						if (j != i && !deps.contains(j)) deps.add(j);
+					}
+				}
+			}
+			dependencies.add(deps);
+		}
+
+		int[] stage = new int[count];
+		byte[] state = new byte[count];
+		int stages = 0;
+		for (int i = 0; i < count; i++) {
+			stages = Math.max(stages, visit(i, providers, dependencies, stage, state) + 1);
+		}
+
+		ArrayList<ArrayList<HookProvider>> result = new ArrayList<ArrayList<HookProvider>>();
+		for (int s = 0; s < stages; s++) {
+			result.add(new ArrayList<HookProvider>());
+		}
+		IdentityHashMap<HookProvider, ArrayList<HookProvider>> deps = new IdentityHashMap<HookProvider, ArrayList<HookProvider>>();
+		for (int i = 0; i < count; i++) {
+			result.get(stage[i]).add(providers.get(i));
+			ArrayList<HookProvider> list = new ArrayList<HookProvider>();
+			for (int j : dependencies.get(i)) {
+				list.add(providers.get(j));
+			}
+			deps.put(providers.get(i), list);
+		}
+		return new HookSchedule(result, deps);
+	}
+
+	private static int visit(int i, List<HookProvider> providers, List<ArrayList<Integer>> dependencies, int[] stage, byte[] state) throws BadHookException {
+		if (state[i] == 2) return stage[i];
+		if (state[i] == 1) throw new BadHookException("Hook providers have cyclic dependencies", providers.get(i));
+		state[i] = 1;
+		int s = 0;
+		for (int dep : dependencies.get(i)) {
+			s = Math.max(s, visit(dep, providers, dependencies, stage, state) + 1);
+		}
+		stage[i] = s;
+		state[i] = 2;
+		return s;
+	}
+}
@@ -0,0 +1,253 @@
+package org.frustra.filament;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * HookSnapshot reads and writes resolved hook tables in a compact binary format.
+ * <p>
+ * Class hooks are stored by internal name, and field and method hooks are stored by owner, name, and description,
+ * so they can be resolved again against a different set of {@link FilamentClassNode} objects loaded from the same classes.
+ * Each snapshot records a digest of the loaded classes and of the hook providers that produced it.
+ *
+ * @see Hooks#save(java.io.OutputStream)
+ * @see Hooks#restore(java.io.InputStream)
+ */
+final class HookSnapshot {
+	private static final int MAGIC = 0x46484b31;
+
+	private static final byte CLASS = 1;
+	private static final byte FIELD = 2;
+	private static final byte METHOD = 3;
+	private static final byte STRING = 4;
+	private static final byte INTEGER = 5;
+	private static final byte LONG = 6;
+	private static final byte FLOAT = 7;
+	private static final byte DOUBLE = 8;
+	private static final byte BOOLEAN = 9;
+	private static final byte CHARACTER = 10;
+	private static final byte SHORT = 11;
+	private static final byte BYTE = 12;
+	private static final byte TYPE = 13;
+
+	private HookSnapshot() {}
+
+	/**
+	 * Write a hook table along with digests of the current classes and hook providers.
+	 *
+	 * @param out the stream to write to
+	 * @param hooks the hook table to write
+	 * @throws IOException if the snapshot couldn't be written, or a hook value can't be stored
+	 */
+	static void write(DataOutputStream out, Map<String, Object> hooks) throws IOException {
+		Map<Object, FilamentClassNode> owners = findOwners(hooks);
+		out.writeInt(MAGIC);
+		writeBytes(out, Digests.classes());
+		writeBytes(out, Digests.providers());
+		out.writeInt(hooks.size());
+		for (Entry<String, Object> entry : hooks.entrySet()) {
+			Object value = entry.getValue();
+			out.writeUTF(entry.getKey());
+			if (value instanceof FilamentClassNode) {
+				out.writeByte(CLASS);
+				out.writeUTF(((FilamentClassNode) value).name);
+			} else if (value instanceof FieldNode) {
+				FilamentClassNode owner = owners.get(value);
+				if (owner == null) throw new IOException("Couldn't find owner of field hook: " + entry.getKey());
+				out.writeByte(FIELD);
+				out.writeUTF(owner.name);
+				out.writeUTF(((FieldNode) value).name);
+				out.writeUTF(((FieldNode) value).desc);
+			} else if (value instanceof MethodNode) {
+				FilamentClassNode owner = owners.get(value);
+				if (owner == null) throw new IOException("Couldn't find owner of method hook: " + entry.getKey());
+				out.writeByte(METHOD);
+				out.writeUTF(owner.name);
+				out.writeUTF(((MethodNode) value).name);
+				out.writeUTF(((MethodNode) value).desc);
+			} else if (value instanceof String) {
+				out.writeByte(STRING);
+				out.writeUTF((String) value);
+			} else if (value instanceof Integer) {
+				out.writeByte(INTEGER);
+				out.writeInt((Integer) value);
+			} else if (value instanceof Long) {
+				out.writeByte(LONG);
+				out.writeLong((Long) value);
+			} else if (value instanceof Float) {
+				out.writeByte(FLOAT);
+				out.writeFloat((Float) value);
+			} else if (value instanceof Double) {
+				out.writeByte(DOUBLE);
+				out.writeDouble((Double) value);
+			} else if (value instanceof Boolean) {
+				out.writeByte(BOOLEAN);
+				out.writeBoolean((Boolean) value);
+			} else if (value instanceof Character) {
+				out.writeByte(CHARACTER);
+				out.writeChar((Character) value);
+			} else if (value instanceof Short) {
+				out.writeByte(SHORT);
+				out.writeShort((Short) value);
+			} else if (value instanceof Byte) {
+				out.writeByte(BYTE);
+				out.writeByte((Byte) value);
+			} else if (value instanceof Type) {
+				out.writeByte(TYPE);
+				out.writeUTF(((Type) value).getDescriptor());
+			} else {
+				throw new IOException("Hook value can't be stored in a snapshot: " + entry.getKey() + " = " + value);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Read a hook table and resolve it against the currently loaded classes.
+	 *
+	 * @param in the stream to read from
+	 * @param hooks the hook table to fill
+	 * @param checkProviders <code>true</code> if the snapshot must have been created by the currently registered hook providers
+	 * @return <code>true</code> if the snapshot was read, or <code>false</code> if it doesn't match the loaded classes or hook providers
+	 * @throws IOException if the snapshot couldn't be read
+	 * @throws BadHookException if the snapshot references a class or member that isn't loaded
+	 */
+	static boolean read(DataInputStream in, Map<String, Object> hooks, boolean checkProviders) throws IOException, BadHookException {
+		if (in.readInt() != MAGIC) throw new IOException("Not a hook snapshot");
+		if (!Arrays.equals(readBytes(in), Digests.classes())) return false;
+		byte[] providers = readBytes(in);
+		if (checkProviders && !Arrays.equals(providers, Digests.providers())) return false;
+		readEntries(in, hooks, false);
+		return true;
+	}
+
+	/**
+	 * Resolve the hooks of a snapshot against the currently loaded classes, even if the classes have changed since it was written.
+	 * Hooks referencing a class or member that is no longer loaded are left out.
+	 *
+	 * @param snapshot a snapshot written by {@link #write(DataOutputStream, Map)}
+	 * @return the hooks that could still be resolved
+	 * @throws IOException if the snapshot couldn't be read
+	 */
+	static Map<String, Object> rebind(byte[] snapshot) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+		if (in.readInt() != MAGIC) throw new IOException("Not a hook snapshot");
+		readBytes(in);
+		readBytes(in);
+		HashMap<String, Object> hooks = new HashMap<String, Object>();
+		try {
+			readEntries(in, hooks, true);
+		} catch (BadHookException e) {
+			throw new IOException(e);
+		}
+		return hooks;
+	}
+
+	private static void readEntries(DataInputStream in, Map<String, Object> hooks, boolean lenient) throws IOException, BadHookException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String key = in.readUTF();
+			byte type = in.readByte();
+			Object value;
+			switch (type) {
+			case CLASS:
+				value = HookUtil.getClassNode(in.readUTF());
+				break;
+			case FIELD:
+				value = HookUtil.getFieldNode(in.readUTF(), in.readUTF(), in.readUTF());
+				break;
+			case METHOD:
+				value = HookUtil.getMethodNode(in.readUTF(), in.readUTF(), in.readUTF());
+				break;
+			case STRING:
+				value = in.readUTF();
+				break;
+			case INTEGER:
+				value = in.readInt();
+				break;
+			case LONG:
+				value = in.readLong();
+				break;
+			case FLOAT:
+				value = in.readFloat();
+				break;
+			case DOUBLE:
+				value = in.readDouble();
+				break;
+			case BOOLEAN:
+				value = in.readBoolean();
+				break;
+			case CHARACTER:
+				value = in.readChar();
+				break;
+			case SHORT:
+				value = in.readShort();
+				break;
+			case BYTE:
+				value = in.readByte();
+				break;
+			case TYPE:
+				value = Type.getType(in.readUTF());
+				break;
+			default:
+				throw new IOException("Unknown hook type " + type + ": " + key);
+			}
+			if (value == null) {
+				if (lenient) continue;
+				throw new BadHookException("Snapshot references a missing class or member: " + key);
+			}
+			hooks.put(key, value);
+		}
+	}
+
+	/**
+	 * Find the class containing each field and method hook.
+	 * Only classes that have been parsed past their header can contain hooked members,
+	 * apart from the original members hooked by deferred providers.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<Object, FilamentClassNode> findOwners(Map<String, Object> hooks) {
+		IdentityHashMap<Object, FilamentClassNode> owners = new IdentityHashMap<Object, FilamentClassNode>();
+		for (Object value : hooks.values()) {
+			if (value instanceof FieldNode || value instanceof MethodNode) owners.put(value, null);
+		}
+		if (owners.isEmpty()) return owners;
+		for (FilamentClassNode node : Filament.filament.classes.values()) {
+			if (node.getLevel() < FilamentClassNode.MEMBERS) continue;
+			for (FieldNode f : (List<FieldNode>) node.fields) {
+				if (owners.containsKey(f)) owners.put(f, node);
+			}
+			for (MethodNode m : (List<MethodNode>) node.methods) {
+				if (owners.containsKey(m)) owners.put(m, node);
+			}
+		}
+		HookResolver resolver = Hooks.getResolver();
+		if (resolver != null) resolver.findOwners(owners);
+		return owners;
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] buf) throws IOException {
+		out.writeByte(buf.length);
+		out.write(buf);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] buf = new byte[in.readUnsignedByte()];
+		in.readFully(buf);
+		return buf;
+	}
+}
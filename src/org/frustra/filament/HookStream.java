@@ -0,0 +1,192 @@
+package org.frustra.filament;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.ClassProvider;
+import org.frustra.filament.hooking.types.FieldProvider;
+import org.frustra.filament.hooking.types.HookProvider;
+import org.frustra.filament.hooking.types.MethodProvider;
+
+/**
+ * HookStream matches the class and constant providers of the first hooking stage against classes while they are being loaded.
+ * <p>
+ * Each class is passed to the stream as soon as it is parsed, and queued for a set of matcher threads.
+ * The queue is bounded, so parsing waits for matching if it gets too far ahead.
+ * When hooks are resolved, the streamed matches are kept if every loaded class was either streamed or can still be matched,
+ * and discarded if a streamed class was replaced or removed before then.
+ * The matcher threads stop if no class is queued for {@link #IDLE_TIMEOUT} seconds, which also discards the streamed matches,
+ * so a stream that is never resolved doesn't keep them alive.
+ *
+ * @see Hooks#prepare(String)
+ */
+final class HookStream {
+	private static final int CAPACITY = 1024;
+	private static final int BATCH = 32;
+	private static final Object END = new Object();
+
+	/**
+	 * The number of seconds the matcher threads wait for a class before giving up on the stream.
+	 */
+	static final int IDLE_TIMEOUT = 30;
+
+	private final List<HookProvider> providers;
+	private final HookingPlan plan;
+	private final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(CAPACITY);
+	private final Matcher[] matchers;
+	private volatile boolean broken = false;
+
+	/**
+	 * Start matching providers against the classes passed to {@link #offer(FilamentClassNode)}.
+	 *
+	 * @param providers the providers to match, which must all be streamable
+	 * @param threads the number of matcher threads to start
+	 */
+	HookStream(List<HookProvider> providers, int threads) {
+		this.providers = providers;
+		this.plan = new HookingPlan(providers, null);
+		this.matchers = new Matcher[Math.max(1, threads)];
+		for (int i = 0; i < matchers.length; i++) {
+			matchers[i] = new Matcher();
+			matchers[i].start();
+		}
+	}
+
+	/**
+	 * Check if a provider only matches classes and their constants, so it can be matched before every class is loaded.
+	 *
+	 * @param hook a hook provider
+	 * @return <code>true</code> if the provider can be streamed
+	 */
+	static boolean isStreamable(HookProvider hook) {
+		return hook instanceof ClassProvider && !(hook instanceof FieldProvider) && !(hook instanceof MethodProvider);
+	}
+
+	/**
+	 * Queue a newly parsed class to be matched, waiting if the queue is full.
+	 *
+	 * @param node the parsed class
+	 */
+	void offer(FilamentClassNode node) {
+		if (broken) return;
+		try {
+			queue.put(node);
+		} catch (InterruptedException e) {
+			broken = true;
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop the matcher threads and discard anything they matched.
+	 */
+	void cancel() {
+		broken = true;
+		stop();
+	}
+
+	/**
+	 * Stop the matcher threads once every queued class is matched, and match the providers against any loaded class that wasn't streamed.
+	 *
+	 * @param nodes the classes being hooked
+	 * @return the providers that have been matched against every class, which is empty if the streamed matches had to be discarded
+	 */
+	List<HookProvider> finish(FilamentClassNode[] nodes) {
+		stop();
+		IdentityHashMap<FilamentClassNode, Boolean> streamed = new IdentityHashMap<FilamentClassNode, Boolean>();
+		for (Matcher matcher : matchers) {
+			if (matcher.failure != null) broken = true;
+			for (FilamentClassNode node : matcher.scanned) {
+				streamed.put(node, true);
+			}
+		}
+		ArrayList<FilamentClassNode> missing = new ArrayList<FilamentClassNode>();
+		for (FilamentClassNode node : nodes) {
+			if (streamed.remove(node) == null) missing.add(node);
+		}
+		if (broken || !streamed.isEmpty()) {
+			if (Filament.filament.debug) System.out.println("Discarding streamed hook matches, since " + (broken ? "streaming failed" : streamed.size() + " streamed classes were replaced"));
+			for (HookProvider hook : providers) {
+				hook.reset();
+			}
+			return new ArrayList<HookProvider>();
+		}
+		if (Filament.filament.debug) System.out.println("Streamed " + (nodes.length - missing.size()) + " classes, matching " + missing.size() + " more");
+		if (!missing.isEmpty()) HookRun.scan(plan, missing.toArray(new FilamentClassNode[missing.size()]));
+		return providers;
+	}
+
+	private void stop() {
+		try {
+			queue.put(END);
+			for (Matcher matcher : matchers) {
+				matcher.join();
+			}
+		} catch (InterruptedException e) {
+			broken = true;
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private final class Matcher extends Thread {
+		private final ArrayList<FilamentClassNode> scanned = new ArrayList<FilamentClassNode>();
+		private Throwable failure = null;
+
+		private Matcher() {
+			super("Filament hook stream");
+			setDaemon(true);
+		}
+
+		public void run() {
+			ArrayList<Object> drained = new ArrayList<Object>(BATCH);
+			FilamentClassNode[] batch = new FilamentClassNode[BATCH];
+			try {
+				while (true) {
+					Object next = queue.poll(IDLE_TIMEOUT, TimeUnit.SECONDS);
+					if (next == null) {
+						boolean first = !broken;
+						broken = true;
+						// Nothing more is queued once the stream is broken, so no loader can stay blocked on a full queue
+						queue.clear();
+						if (first && Filament.filament.debug) System.out.println("No classes streamed for " + IDLE_TIMEOUT + " seconds, stopping the hook stream");
+						return;
+					}
+					drained.add(next);
+					queue.drainTo(drained, BATCH - 1);
+					int count = 0;
+					boolean end = false;
+					for (Object entry : drained) {
+						if (entry == END) {
+							end = true;
+						} else {
+							batch[count++] = (FilamentClassNode) entry;
+						}
+					}
+					drained.clear();
+					if (!broken && failure == null) {
+						try {
+							plan.scan(batch, 0, count);
+						} catch (Throwable e) {
+							failure = e;
+						}
+					}
+					for (int i = 0; i < count; i++) {
+						scanned.add(batch[i]);
+						batch[i] = null;
+					}
+					if (end) {
+						// Leave the marker for the other matcher threads
+						queue.put(END);
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				failure = e;
+			}
+		}
+	}
+}
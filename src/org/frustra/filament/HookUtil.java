@@ -187,6 +187,7 @@ public final class HookUtil {
 	 */
 	@SuppressWarnings("unchecked")
 	public static MethodNode getMethodNode(FilamentClassNode node, String name, String desc) {
+		node.expand(FilamentClassNode.MEMBERS);
 		for (MethodNode m : (List<MethodNode>) node.methods) {
 			if (m.name.equals(name) && m.desc.equals(desc)) return m;
 		}
@@ -219,6 +220,7 @@ public final class HookUtil {
 	 */
 	@SuppressWarnings("unchecked")
 	public static FieldNode getFieldNode(FilamentClassNode node, String name, String desc) {
+		node.expand(FilamentClassNode.MEMBERS);
 		for (FieldNode f : (List<FieldNode>) node.fields) {
 			if (f.name.equals(name) && f.desc.equals(desc)) return f;
 		}
@@ -0,0 +1,247 @@
+package org.frustra.filament;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.ClassProvider;
+import org.frustra.filament.hooking.types.ConstantProvider;
+import org.frustra.filament.hooking.types.FieldProvider;
+import org.frustra.filament.hooking.types.HookProvider;
+import org.frustra.filament.hooking.types.InstructionProvider;
+import org.frustra.filament.hooking.types.MethodProvider;
+import org.frustra.filament.hooking.types.PatternProvider;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * HookingPlan is the dispatch table for the hook providers of a single hooking pass.
+ * <p>
+ * Providers are sorted by kind into flat arrays once when the plan is built, keeping their registration order.
+ * Each {@link ClassProvider} is given a bit, and the providers still matching the current class or method are tracked in bitsets,
+ * so scanning a class doesn't allocate anything.
+ * The working space of the {@link PatternMatcher} is reused from one range to the next.
+ * Providers declaring requirements such as {@link org.frustra.filament.hooking.types.RequireConstant RequireConstant}
+ * are only matched against the candidate classes found by a {@link ClassIndex},
+ * and constant providers declaring needles are only matched against the constants found by a {@link ConstantMatcher}.
+ * The patterns of every {@link PatternProvider} are searched for by a single {@link PatternMatcher}.
+ *
+ * @see Hooks
+ */
+final class HookingPlan {
+	private final ClassProvider[] classProviders;
+	private final BitSet[] candidates;
+	private final Prefilter[] filters;
+	private final ConstantProvider[] constantProviders;
+	private final int[] constantBits;
+	private final ConstantMatcher constantMatcher;
+	private final FieldProvider[] fieldProviders;
+	private final int[] fieldBits;
+	private final MethodProvider[] methodProviders;
+	private final int[] methodBits;
+	private final InstructionProvider[] instructionProviders;
+	private final int[] instructionBits;
+	private final PatternMatcher patternMatcher;
+
+	private final long[] fieldMask;
+	private final long[] methodMask;
+	private final long[] instructionMask;
+	private final long[] patternMask;
+	private final int words;
+
+	/**
+	 * Build the dispatch table for a list of hook providers.
+	 *
+	 * @param hooks the hook providers of a pass, in registration order
+	 * @param index an index of the classes that will be scanned, built for these providers,
+	 *        or <code>null</code> to check the requirements of each provider against every class as it is scanned
+	 */
+	HookingPlan(List<HookProvider> hooks, ClassIndex index) {
+		ArrayList<ClassProvider> classes = new ArrayList<ClassProvider>();
+		for (HookProvider hook : hooks) {
+			if (hook instanceof ClassProvider) classes.add((ClassProvider) hook);
+		}
+		classProviders = classes.toArray(new ClassProvider[classes.size()]);
+		candidates = new BitSet[classProviders.length];
+		filters = new Prefilter[classProviders.length];
+		for (int bit = 0; bit < classProviders.length; bit++) {
+			if (index != null) {
+				candidates[bit] = index.candidates(classProviders[bit]);
+			} else {
+				filters[bit] = Prefilter.of(classProviders[bit]);
+			}
+		}
+		words = Math.max(1, (classProviders.length + 63) >>> 6);
+		fieldMask = new long[words];
+		methodMask = new long[words];
+		instructionMask = new long[words];
+		patternMask = new long[words];
+
+		int constants = 0, fields = 0, methods = 0, instructions = 0, patterns = 0;
+		for (ClassProvider hook : classProviders) {
+			if (hook instanceof ConstantProvider) constants++;
+			if (hook instanceof FieldProvider) fields++;
+			if (hook instanceof MethodProvider) methods++;
+			if (hook instanceof InstructionProvider) instructions++;
+			if (hook instanceof PatternProvider) patterns++;
+		}
+		constantProviders = new ConstantProvider[constants];
+		constantBits = new int[constants];
+		fieldProviders = new FieldProvider[fields];
+		fieldBits = new int[fields];
+		methodProviders = new MethodProvider[methods];
+		methodBits = new int[methods];
+		instructionProviders = new InstructionProvider[instructions];
+		instructionBits = new int[instructions];
+		PatternProvider[] patternProviders = new PatternProvider[patterns];
+		int[] patternBits = new int[patterns];
+
+		constants = fields = methods = instructions = patterns = 0;
+		for (int bit = 0; bit < classProviders.length; bit++) {
+			ClassProvider hook = classProviders[bit];
+			if (hook instanceof ConstantProvider) {
+				constantProviders[constants] = (ConstantProvider) hook;
+				constantBits[constants++] = bit;
+			}
+			if (hook instanceof FieldProvider) {
+				fieldProviders[fields] = (FieldProvider) hook;
+				fieldBits[fields++] = bit;
+				set(fieldMask, bit);
+			}
+			if (hook instanceof MethodProvider) {
+				methodProviders[methods] = (MethodProvider) hook;
+				methodBits[methods++] = bit;
+				set(methodMask, bit);
+			}
+			if (hook instanceof InstructionProvider) {
+				instructionProviders[instructions] = (InstructionProvider) hook;
+				instructionBits[instructions++] = bit;
+				set(instructionMask, bit);
+			}
+			if (hook instanceof PatternProvider) {
+				patternProviders[patterns] = (PatternProvider) hook;
+				patternBits[patterns++] = bit;
+				set(patternMask, bit);
+			}
+		}
+		constantMatcher = ConstantMatcher.compile(constantProviders);
+		patternMatcher = patterns == 0 ? null : new PatternMatcher(patternProviders, patternBits);
+	}
+
+	/**
+	 * Run every matcher of this plan on a range of classes.
+	 * Ranges may be scanned on different threads at the same time; the bitsets used are local to each call.
+	 *
+	 * @param nodes the classes to scan, in the same order as they were indexed
+	 * @param start the index of the first class to scan
+	 * @param end the index after the last class to scan
+	 */
+	void scan(FilamentClassNode[] nodes, int start, int end) {
+		long[] classSet = new long[words];
+		long[] methodSet = new long[words];
+		long[] constantHits = constantMatcher == null ? null : constantMatcher.newHits();
+		PatternMatcher.Buffer buffer = patternMatcher == null ? null : patternMatcher.takeBuffer();
+		try {
+			for (int i = start; i < end; i++) {
+				scan(nodes[i], i, classSet, methodSet, constantHits, buffer);
+			}
+		} finally {
+			if (buffer != null) patternMatcher.releaseBuffer(buffer);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void scan(FilamentClassNode node, int ordinal, long[] classSet, long[] methodSet, long[] constantHits, PatternMatcher.Buffer buffer) {
+		Arrays.fill(classSet, 0);
+		boolean any = false;
+		// Collected at most once per class, for the first requirement needing it
+		FilamentClassNode.Shape shape = null;
+		for (int bit = 0; bit < classProviders.length; bit++) {
+			if (candidates[bit] != null && !candidates[bit].get(ordinal)) continue;
+			if (filters[bit] != null) {
+				if (shape == null && filters[bit].needsShape()) shape = node.getShape();
+				if (!filters[bit].accepts(node, shape)) continue;
+			}
+			if (classProviders[bit].doMatch(node)) {
+				set(classSet, bit);
+				any = true;
+			}
+		}
+		if (!any) return;
+
+		boolean fields = intersects(classSet, fieldMask);
+		boolean methods = intersects(classSet, methodMask);
+		if (fields || methods) node.expand(FilamentClassNode.MEMBERS);
+
+		if (constantProviders.length > 0) {
+			List<String> constants = node.getConstants();
+			for (int i = 0; i < constants.size(); i++) {
+				String constant = constants.get(i);
+				if (constantMatcher != null) constantMatcher.scan(constant, constantHits);
+				for (int j = 0; j < constantProviders.length; j++) {
+					if (!test(classSet, constantBits[j])) continue;
+					if (constantMatcher != null && constantMatcher.isDeclared(j) && !test(constantHits, j)) continue;
+					constantProviders[j].doMatch(node, constant);
+				}
+			}
+		}
+
+		if (fields) {
+			List<FieldNode> list = node.fields;
+			for (int i = 0; i < list.size(); i++) {
+				FieldNode f = list.get(i);
+				for (int j = 0; j < fieldProviders.length; j++) {
+					if (test(classSet, fieldBits[j])) fieldProviders[j].doMatch(node, f);
+				}
+			}
+		}
+
+		if (methods) {
+			List<MethodNode> list = node.methods;
+			for (int i = 0; i < list.size(); i++) {
+				MethodNode m = list.get(i);
+				Arrays.fill(methodSet, 0);
+				boolean instructions = false, patterns = false;
+				for (int j = 0; j < methodProviders.length; j++) {
+					int bit = methodBits[j];
+					if (test(classSet, bit) && methodProviders[j].doMatch(node, m)) {
+						set(methodSet, bit);
+						if (test(instructionMask, bit)) instructions = true;
+						if (test(patternMask, bit)) patterns = true;
+					}
+				}
+				if (!instructions && !patterns) continue;
+
+				node.expand(FilamentClassNode.FULL);
+				if (instructions) {
+					AbstractInsnNode insn = m.instructions.getFirst();
+					while (insn != null) {
+						for (int j = 0; j < instructionProviders.length; j++) {
+							if (test(methodSet, instructionBits[j])) instructionProviders[j].doMatch(node, m, insn);
+						}
+						insn = insn.getNext();
+					}
+				}
+				if (patterns) patternMatcher.scan(node, m, methodSet, buffer);
+			}
+		}
+	}
+
+	private static void set(long[] set, int bit) {
+		set[bit >>> 6] |= 1L << bit;
+	}
+
+	static boolean test(long[] set, int bit) {
+		return (set[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	private static boolean intersects(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if ((a[i] & b[i]) != 0) return true;
+		}
+		return false;
+	}
+}
@@ -1,23 +1,31 @@
 package org.frustra.filament;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.frustra.filament.hooking.BadHookException;
 import org.frustra.filament.hooking.FilamentClassNode;
-import org.frustra.filament.hooking.types.ClassProvider;
-import org.frustra.filament.hooking.types.ConstantProvider;
-import org.frustra.filament.hooking.types.FieldProvider;
 import org.frustra.filament.hooking.types.HookProvider;
 import org.frustra.filament.hooking.types.HookingPass;
-import org.frustra.filament.hooking.types.InstructionProvider;
-import org.frustra.filament.hooking.types.MethodProvider;
-import org.objectweb.asm.tree.AbstractInsnNode;
+import org.frustra.filament.hooking.types.ReadsHooks;
+import org.frustra.filament.hooking.types.WritesHooks;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
@@ -48,7 +56,13 @@ import org.objectweb.asm.tree.MethodNode;
 public final class Hooks {
 	private Hooks() {}
 	
-	private static HashMap<String, Object> hooks = new HashMap<String, Object>();
+	static Map<String, Object> hooks = new ConcurrentHashMap<String, Object>();
+	private static final ThreadLocal<Recording> recording = new ThreadLocal<Recording>();
+	private static HookHistory history = null;
+	private static boolean lazy = false;
+	private static boolean incremental = false;
+	private static volatile HookResolver resolver = null;
+	private static Map<String, String> seeds = new TreeMap<String, String>();
 
 	/**
 	 * Load all hook providers contained within the specified package, and run them on the global Filament instance.
@@ -56,6 +70,8 @@ public final class Hooks {
 	 * <p>
 	 * A hook provider is any class that extends {@link HookProvider}.
 	 * Hook providers have a {@link HookingPass} annotation to define what order they are processed in.
+	 * Providers that declare the hooks they read and write with {@link ReadsHooks} and {@link WritesHooks}
+	 * only wait for the providers they depend on, and are matched in the same scan as every other provider that is ready.
 	 * Any hook providers loaded with a previous call to load will be overwritten.
 	 * 
 	 * @param packageName the name of the package containing hook providers
@@ -65,8 +81,193 @@ public final class Hooks {
 	 * @see FilamentClassLoader
 	 * @see HookProvider
 	 * @see HookingPass
+	 * @see ReadsHooks
 	 */
 	public static final void load(String packageName) throws ReflectiveOperationException, IOException, BadHookException {
+		register(packageName);
+		doHooking();
+	}
+
+	/**
+	 * Load all hook providers contained within the specified package, and start matching them against classes as they are loaded.
+	 * <p>
+	 * Class and constant providers of the first hooking stage are matched against each class as soon as it is parsed by a following
+	 * <code>loadJar</code> call, on separate threads, so reading the jar and the first hooking pass overlap.
+	 * Call {@link #resolve()} once every class is loaded to finish processing the hooks.
+	 * If a streamed class is replaced or removed before then, the streamed matches are discarded and the first stage is matched normally.
+	 * The matcher threads stop by themselves if no class is loaded for {@link HookStream#IDLE_TIMEOUT} seconds,
+	 * in which case the first stage is also matched normally, so a <code>prepare</code> call that is never resolved doesn't leave them running.
+	 * 
+	 * @param packageName the name of the package containing hook providers
+	 * @throws ReflectiveOperationException if the package or any classes cannot be loaded
+	 * @throws BadHookException if the declared dependencies of the hook providers form a cycle
+	 * @throws IOException if one of the provider classes could not be read
+	 * @see #load(String)
+	 */
+	public static final void prepare(String packageName) throws ReflectiveOperationException, IOException, BadHookException {
+		register(packageName);
+		HookSchedule schedule = HookSchedule.build(Filament.filament.hooks);
+		if (schedule.stages.isEmpty()) return;
+		List<HookProvider> deferred = lazy ? schedule.findDeferrable() : new ArrayList<HookProvider>();
+		ArrayList<HookProvider> streamed = new ArrayList<HookProvider>();
+		for (HookProvider hook : schedule.stages.get(0)) {
+			if (HookStream.isStreamable(hook) && !deferred.contains(hook)) streamed.add(hook);
+		}
+		if (!streamed.isEmpty()) Filament.filament.stream = new HookStream(streamed, Filament.filament.parallelism);
+	}
+
+	/**
+	 * Run the hook providers loaded by {@link #prepare(String)} on the global Filament instance,
+	 * reusing the matches found while classes were being loaded.
+	 * 
+	 * @throws BadHookException if there is an error while processing the hooks
+	 */
+	public static final void resolve() throws BadHookException {
+		doHooking();
+	}
+
+	/**
+	 * Load all hook providers contained within the specified package, and resolve their hooks from a snapshot file if possible.
+	 * <p>
+	 * If the snapshot exists and was created from the same classes and hook providers, the hooks are read from it and no hooking passes are run.
+	 * Otherwise the hooks are processed the same as {@link #load(String)}, and the result is written to the snapshot file.
+	 * The snapshot is written to a temporary file first and then renamed, so it is never left partially written.
+	 * 
+	 * @param packageName the name of the package containing hook providers
+	 * @param snapshot a file to read or write resolved hooks
+	 * @throws ReflectiveOperationException if the package or any classes cannot be loaded
+	 * @throws BadHookException if there is an error while processing the hooks
+	 * @throws IOException if one of the provider classes or the snapshot could not be read or written
+	 * @see #save(OutputStream)
+	 */
+	public static final void load(String packageName, File snapshot) throws ReflectiveOperationException, IOException, BadHookException {
+		register(packageName);
+		if (snapshot.isFile()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+			try {
+				if (restore(in, true)) return;
+			} catch (IOException e) {
+				if (Filament.filament.debug) System.out.println("Ignoring unreadable hook snapshot: " + e.getMessage());
+			} catch (BadHookException e) {
+				if (Filament.filament.debug) System.out.println("Ignoring invalid hook snapshot: " + e.getMessage());
+			} finally {
+				in.close();
+			}
+		}
+		doHooking();
+		// Written next to the snapshot and renamed, so a crash or another process never sees a partial file
+		File tmp = File.createTempFile("hooks", ".tmp", snapshot.getAbsoluteFile().getParentFile());
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				save(out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(snapshot)) {
+				snapshot.delete();
+				if (!tmp.renameTo(snapshot)) throw new IOException("Couldn't replace hook snapshot: " + snapshot);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Load all hook providers contained within the specified package, and run them on the global Filament instance,
+	 * checking the class each provider matched during a previous run first.
+	 * <p>
+	 * Each provider with a seed is first matched against only its seeded class.
+	 * If it matches that class exactly once, its hooks are set from that match and no other class is checked,
+	 * so a provider that would now also match a different class isn't reported as ambiguous.
+	 * Only providers without a seed, or whose seeded class no longer matches, are matched against every class.
+	 * This is useful when a new version of obfuscated code keeps most classes under the same names.
+	 * 
+	 * @param packageName the name of the package containing hook providers
+	 * @param seeds the internal name of the class each provider matched, by provider class name, as returned by {@link #getSeeds()}
+	 * @throws ReflectiveOperationException if the package or any classes cannot be loaded
+	 * @throws BadHookException if there is an error while processing the hooks
+	 * @throws IOException if one of the provider classes could not be read
+	 * @see #load(String)
+	 */
+	public static final void load(String packageName, Map<String, String> seeds) throws ReflectiveOperationException, IOException, BadHookException {
+		register(packageName);
+		doHooking(false, seeds);
+	}
+
+	/**
+	 * Get the class each hook provider matched during the last hooking run, to be passed to {@link #load(String, Map)} for a later version of the classes.
+	 * <p>
+	 * Providers that failed, or that didn't match a class, have no seed.
+	 * 
+	 * @return the internal name of each matched class, by provider class name
+	 */
+	public static Map<String, String> getSeeds() {
+		return new TreeMap<String, String>(seeds);
+	}
+
+	/**
+	 * Write the current hook table to a stream in a compact binary format.
+	 * Any hooks deferred by {@link #setLazy(boolean)} are resolved first.
+	 * <p>
+	 * Class hooks are written by name, field and method hooks by owner, name, and description, and other values as they are.
+	 * Only Strings, boxed primitives, and ASM {@link org.objectweb.asm.Type Type} values can be written.
+	 * 
+	 * @param out the stream to write to
+	 * @throws IOException if the snapshot couldn't be written, or a hook value can't be stored
+	 * @see #restore(InputStream)
+	 */
+	public static void save(OutputStream out) throws IOException {
+		HookResolver resolver = Hooks.resolver;
+		if (resolver != null) {
+			try {
+				resolver.resolveAll();
+			} catch (BadHookException e) {
+				throw new IOException("Deferred hooks could not be resolved", e);
+			}
+		}
+		HookSnapshot.write(new DataOutputStream(out), hooks);
+	}
+
+	/**
+	 * Replace the current hook table with one read from a stream written by {@link #save(OutputStream)}.
+	 * <p>
+	 * The snapshot is only used if it was created from the same loaded classes.
+	 * In that case no hooking passes need to be run.
+	 * 
+	 * @param in the stream to read from
+	 * @return <code>true</code> if the hooks were restored, or <code>false</code> if the snapshot was created from different classes
+	 * @throws IOException if the snapshot couldn't be read
+	 * @throws BadHookException if the snapshot references a class or member that isn't loaded
+	 */
+	public static boolean restore(InputStream in) throws IOException, BadHookException {
+		return restore(in, false);
+	}
+
+	private static boolean restore(InputStream in, boolean checkProviders) throws IOException, BadHookException {
+		// Injected classes are reverted first, so the restored hooks reference their original members
+		Filament.filament.revertInjected();
+		HashMap<String, Object> restored = new HashMap<String, Object>();
+		if (!HookSnapshot.read(new DataInputStream(in), restored, checkProviders)) return false;
+		hooks.clear();
+		hooks.putAll(restored);
+		history = null;
+		resolver = null;
+		seeds = new TreeMap<String, String>();
+		if (Filament.filament.debug) {
+			System.out.println();
+			System.out.println("Restored hooks from snapshot");
+			debugHooks();
+			System.out.println();
+		}
+		return true;
+	}
+
+	private static void register(String packageName) throws ReflectiveOperationException, IOException {
+		if (Filament.filament.stream != null) {
+			Filament.filament.stream.cancel();
+			Filament.filament.stream = null;
+		}
 		String[] hooks = Filament.filament.classLoader.listPackage(packageName);
 		Filament.filament.hooks.clear();
 		for (String name : hooks) {
@@ -79,7 +280,7 @@ public final class Hooks {
 				}
 			}
 		}
-		doHooking();
+		Filament.filament.invalidate();
 	}
 	
 	public static Set<String> getHooks() {
@@ -96,19 +297,106 @@ public final class Hooks {
 		Filament.filament.hooks.put(pass, hooks);
 	}
 
+	/**
+	 * Set whether hook providers declaring {@link WritesHooks} are only run when one of their hooks is first requested.
+	 * <p>
+	 * When enabled, the next hooking run skips every provider declaring {@link WritesHooks} and requirements such as
+	 * {@link org.frustra.filament.hooking.types.RequireConstant RequireConstant}, unless a provider that isn't skipped depends on it.
+	 * The first call to {@link #get(String)} for one of their hooks runs the provider declaring it,
+	 * and any of its skipped dependencies, against only the classes meeting its declared requirements.
+	 * <p>
+	 * A provider run on demand sees its candidate classes as they were loaded, parsed again from their original bytes,
+	 * even if injectors have changed them since. Its class hooks refer to the loaded classes,
+	 * and its field and method hooks to the original members, with their original names and descriptions.
+	 * Those members aren't part of the loaded classes, so an injector changing a hooked member should look it up in its loaded class instead.
+	 * {@link #getHooks()} only contains the hooks resolved so far.
+	 * 
+	 * @param lazy <code>true</code> to resolve declared hooks on demand
+	 */
+	public static void setLazy(boolean lazy) {
+		Hooks.lazy = lazy;
+	}
+
+	/**
+	 * Check whether declared hooks are resolved on demand.
+	 * 
+	 * @return <code>true</code> if lazy hook resolution is enabled
+	 * @see #setLazy(boolean)
+	 */
+	public static boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * Set whether hooking runs remember what they resolved, so {@link #rehook()} can match only the providers affected by changed classes.
+	 * <p>
+	 * Remembering a run digests every loaded class and stores a snapshot of the hook table, so it is disabled by default.
+	 * It takes effect from the next hooking run.
+	 * 
+	 * @param incremental <code>true</code> to let {@link #rehook()} resolve hooks incrementally
+	 */
+	public static void setIncremental(boolean incremental) {
+		Hooks.incremental = incremental;
+		if (!incremental) history = null;
+	}
+
+	/**
+	 * Check whether hooking runs are remembered for incremental re-hooking.
+	 * 
+	 * @return <code>true</code> if incremental re-hooking is enabled
+	 * @see #setIncremental(boolean)
+	 */
+	public static boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Resolve every hook again after the loaded classes have changed, such as after loading an updated version of a jar.
+	 * <p>
+	 * If {@link #setIncremental(boolean)} was enabled before the last hooking run,
+	 * only the providers that could be affected by the added, changed, or removed classes are matched against every class again.
+	 * The others are only matched against the added and changed classes, and keep the hooks they set if they don't match any of them.
+	 * The resulting hooks are the same as calling {@link #load(String)} again, without creating new hook providers.
+	 * <p>
+	 * If hooks were never resolved by this process, the last attempt failed, or incremental re-hooking wasn't enabled,
+	 * every provider is matched against every class.
+	 * 
+	 * @throws BadHookException if there is an error while processing the hooks
+	 */
+	public static final void rehook() throws BadHookException {
+		doHooking(true, null);
+	}
+
 	private static void doHooking() throws BadHookException {
+		doHooking(false, null);
+	}
+
+	private static void doHooking(boolean rehook, Map<String, String> seeds) throws BadHookException {
 		if (Filament.filament.debug) {
 			System.out.println();
 			System.out.println("Executing hooks...");
 		}
 
+		HookHistory previous = rehook ? history : null;
+		HookStream stream = Filament.filament.stream;
+		Filament.filament.stream = null;
+		history = null;
+		resolver = null;
 		hooks.clear();
+		Filament.filament.revertInjected();
 
+		FilamentClassNode[] nodes = Filament.filament.classes.values().toArray(new FilamentClassNode[0]);
+		HookRun run = null;
 		try {
-			for (Integer pass : Filament.filament.hooks.keySet()) {
-				doHookingPass(pass);
-			}
+			HookSchedule schedule = HookSchedule.build(Filament.filament.hooks);
+			List<HookProvider> deferred = lazy ? schedule.findDeferrable() : new ArrayList<HookProvider>();
+			List<HookProvider> matched = stream == null ? new ArrayList<HookProvider>() : stream.finish(nodes);
+			run = new HookRun(nodes, deferred.isEmpty() ? schedule : schedule.without(deferred), previous, seeds, matched);
+			run.run();
+			if (incremental) history = run.getHistory();
+			if (!deferred.isEmpty()) resolver = new HookResolver(nodes, schedule, deferred);
 		} finally {
+			Hooks.seeds = run == null ? new TreeMap<String, String>() : run.getSeeds();
 			if (Filament.filament.debug) {
 				debugHooks();
 				System.out.println("Hooking complete");
@@ -117,95 +405,67 @@ public final class Hooks {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private static void doHookingPass(int pass) throws BadHookException {
-		ArrayList<HookProvider> hooks = Filament.filament.hooks.get(pass);
-		ArrayList<HookProvider> classHooks = new ArrayList<HookProvider>();
-		ArrayList<HookProvider> methodHooks = new ArrayList<HookProvider>();
-		for (HookProvider hook : hooks) {
-			hook.reset();
-		}
-		for (FilamentClassNode node : Filament.filament.classes.values()) {
-			classHooks = (ArrayList<HookProvider>) hooks.clone();
-			for (HookProvider hook : classHooks.toArray(new HookProvider[0])) {
-				if (hook instanceof ClassProvider) {
-					if (!((ClassProvider) hook).doMatch(node)) classHooks.remove(hook);
-				}
-			}
-			if (classHooks.size() > 0) {
-				for (String constant : node.getConstants()) {
-					for (HookProvider hook : classHooks) {
-						if (hook instanceof ConstantProvider) {
-							((ConstantProvider) hook).doMatch(node, constant);
-						}
-					}
-				}
-			}
-			if (classHooks.size() > 0) {
-				for (FieldNode f : (List<FieldNode>) node.fields) {
-					for (HookProvider hook : classHooks) {
-						if (hook instanceof FieldProvider) {
-							((FieldProvider) hook).doMatch(node, f);
-						}
-					}
-				}
-			}
-			if (classHooks.size() > 0) {
-				for (MethodNode m : (List<MethodNode>) node.methods) {
-					methodHooks = (ArrayList<HookProvider>) classHooks.clone();
-					for (HookProvider hook : methodHooks.toArray(new HookProvider[0])) {
-						if (hook instanceof MethodProvider) {
-							if (!((MethodProvider) hook).doMatch(node, m)) methodHooks.remove(hook);
-						}
-					}
-
-					if (methodHooks.size() > 0) {
-						AbstractInsnNode insn = m.instructions.getFirst();
-						while (insn != null) {
-							for (HookProvider hook : methodHooks) {
-								if (hook instanceof InstructionProvider) {
-									((InstructionProvider) hook).doMatch(node, m, insn);
-								}
-							}
-							insn = insn.getNext();
-						}
-					}
-				}
-			}
-		}
-		Exception firstError = null;
-		for (HookProvider hook : hooks) {
-			try {
-				hook.doComplete();
-			} catch (BadHookException e) {
-				if (firstError == null) firstError = e;
-				if (Filament.filament.debug) System.err.println("Failed hook provider: " + hook + ", Cause: " + e.getProblem());
-			}
-		}
-		if (firstError != null) {
-			throw new BadHookException("Errors occured while processing hooking pass " + pass, firstError);
+	/**
+	 * Start recording the names of the hooks set by the current thread, such as while a hook provider completes.
+	 * Hooks set by other threads at the same time are not recorded.
+	 * <p>
+	 * Recordings can be nested, such as when a completing provider requests a deferred hook.
+	 * Only the innermost recording sees the hooks set until it is stopped, and the one it interrupted then continues.
+	 * 
+	 * @return the list the names are added to, in the order the hooks are set
+	 */
+	static List<String> startRecording() {
+		return startRecording(null);
+	}
+
+	/**
+	 * Start recording the names of the hooks set by the current thread, and replace the values it sets.
+	 * 
+	 * @param bindings the replacement for each value, compared by identity, or <code>null</code> to keep every value
+	 * @return the list the names are added to, in the order the hooks are set
+	 * @see #startRecording()
+	 */
+	static List<String> startRecording(IdentityHashMap<Object, Object> bindings) {
+		Recording current = new Recording(bindings, recording.get());
+		recording.set(current);
+		return current.written;
+	}
+
+	/**
+	 * Stop the innermost recording of the current thread, and continue the one it interrupted, if any.
+	 * 
+	 * @see #startRecording()
+	 */
+	static void stopRecording() {
+		Recording current = recording.get();
+		if (current == null || current.previous == null) {
+			recording.remove();
+		} else {
+			recording.set(current.previous);
 		}
 	}
 
+	/**
+	 * Get what the last hooking run resolved, for {@link #rehook()} to compare against.
+	 * 
+	 * @return the history, or <code>null</code> if incremental re-hooking is disabled or the last run failed
+	 */
+	static HookHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Get the resolver of the hooks deferred by the last hooking run.
+	 * 
+	 * @return the resolver, or <code>null</code> if no hooks were deferred
+	 */
+	static HookResolver getResolver() {
+		return resolver;
+	}
+
 	public static void debugHooks() {
 		try {
-			ArrayList<String> output = new ArrayList<String>();
-			for (Entry<String, Object> entry : hooks.entrySet()) {
-				String key = entry.getKey();
-				Object value = entry.getValue();
-				if (value instanceof FilamentClassNode) {
-					output.add(key + " = " + ((FilamentClassNode) value).name);
-				} else if (value instanceof FieldNode) {
-					output.add(key + " = " + ((FieldNode) value).name);
-				} else if (value instanceof MethodNode) {
-					output.add(key + " = " + ((MethodNode) value).name + ((MethodNode) value).desc);
-				} else {
-					output.add(key + " = " + value);
-				}
-			}
-			String[] output2 = output.toArray(new String[0]);
-			Arrays.sort(output2);
-			for (String line : output2) {
+			for (String line : describeHooks()) {
 				System.out.println(line);
 			}
 		} catch (Exception e) {
@@ -213,6 +473,31 @@ public final class Hooks {
 		}
 	}
 
+	/**
+	 * Describe each resolved hook on its own line, as <code>name = value</code>, sorted by name.
+	 * 
+	 * @return a line for each hook
+	 */
+	static String[] describeHooks() {
+		ArrayList<String> output = new ArrayList<String>();
+		for (Entry<String, Object> entry : hooks.entrySet()) {
+			String key = entry.getKey();
+			Object value = entry.getValue();
+			if (value instanceof FilamentClassNode) {
+				output.add(key + " = " + ((FilamentClassNode) value).name);
+			} else if (value instanceof FieldNode) {
+				output.add(key + " = " + ((FieldNode) value).name);
+			} else if (value instanceof MethodNode) {
+				output.add(key + " = " + ((MethodNode) value).name + ((MethodNode) value).desc);
+			} else {
+				output.add(key + " = " + value);
+			}
+		}
+		String[] output2 = output.toArray(new String[0]);
+		Arrays.sort(output2);
+		return output2;
+	}
+
 	/**
 	 * Get the value of a hook casted to a {@link FilamentClassNode}. See above for hook name formats.
 	 * 
@@ -222,7 +507,9 @@ public final class Hooks {
 	 */
 	public static final FilamentClassNode getClass(String hook) throws BadHookException {
 		try {
-			return (FilamentClassNode) get(hook);
+			FilamentClassNode node = (FilamentClassNode) get(hook);
+			node.expand(FilamentClassNode.MEMBERS);
+			return node;
 		} catch (ClassCastException e) {
 			throw new BadHookException("Referenced hook is wrong type: " + hook, e);
 		}
@@ -292,13 +579,19 @@ public final class Hooks {
 
 	/**
 	 * Get the value of a hook without casting its type. See above for hook name formats.
+	 * <p>
+	 * If the hook was deferred by {@link #setLazy(boolean)}, its provider is run first.
 	 * 
 	 * @param hook the name of a hook
 	 * @return the hook's value
-	 * @throws BadHookException if the specified hook is undefined
+	 * @throws BadHookException if the specified hook is undefined, or its deferred provider failed
 	 */
 	public static final Object get(String hook) throws BadHookException {
 		Object val = hooks.get(hook);
+		if (val == null) {
+			HookResolver resolver = Hooks.resolver;
+			if (resolver != null && resolver.resolve(hook)) val = hooks.get(hook);
+		}
 		if (val == null) {
 			System.out.println(Hooks.class.getClassLoader());
 			throw new BadHookException("Referenced undefined hook: " + hook);
@@ -313,6 +606,26 @@ public final class Hooks {
 	 * @param value the hook's value
 	 */
 	public static final void set(String hook, Object value) {
-		hooks.put(hook, value);
+		Recording current = recording.get();
+		if (current != null) {
+			current.written.add(hook);
+			if (current.bindings != null && current.bindings.containsKey(value)) value = current.bindings.get(value);
+		}
+		if (value == null) {
+			hooks.remove(hook);
+		} else {
+			hooks.put(hook, value);
+		}
+	}
+
+	private static final class Recording {
+		private final List<String> written = new ArrayList<String>();
+		private final IdentityHashMap<Object, Object> bindings;
+		private final Recording previous;
+
+		private Recording(IdentityHashMap<Object, Object> bindings, Recording previous) {
+			this.bindings = bindings;
+			this.previous = previous;
+		}
 	}
 }
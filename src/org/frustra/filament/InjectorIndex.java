@@ -0,0 +1,210 @@
+package org.frustra.filament;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.injection.ClassInjector;
+import org.frustra.filament.injection.InjectTargetAnnotation;
+import org.frustra.filament.injection.InjectTargetHook;
+import org.frustra.filament.injection.InjectTargetName;
+import org.objectweb.asm.tree.AnnotationNode;
+
+/**
+ * InjectorIndex selects the registered injectors that may apply to a class, based on the targets they declare
+ * with {@link InjectTargetHook}, {@link InjectTargetName}, and {@link InjectTargetAnnotation}.
+ * <p>
+ * Class hooks, name patterns, and annotations are resolved once for every loaded class when the index is built,
+ * into a map from class name to the injectors targeting it, so selecting the injectors of a class is a single lookup.
+ * Injectors without declared targets are selected for every class.
+ * The index is rebuilt after hooks, injectors, or classes change.
+ *
+ * @see Injectors
+ */
+final class InjectorIndex {
+	private final Selector injectors;
+	private final Selector visitorInjectors;
+	private final BitSet overridden = new BitSet();
+
+	InjectorIndex() {
+		FilamentClassNode[] classes = Filament.filament.classes.values().toArray(new FilamentClassNode[0]);
+		injectors = new Selector(Filament.filament.injectors, classes);
+		visitorInjectors = new Selector(Filament.filament.visitorInjectors, classes);
+		for (int i = 0; i < Filament.filament.injectors.size(); i++) {
+			try {
+				Method method = Filament.filament.injectors.get(i).getClass().getMethod("doInject", FilamentClassNode.class);
+				if (method.getDeclaringClass() != ClassInjector.class) overridden.set(i);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * Check if a {@link ClassInjector} overrides {@link ClassInjector#doInject(FilamentClassNode)},
+	 * in which case it can't be told whether it changed a class.
+	 * 
+	 * @param i the position of the injector in registration order
+	 * @return <code>true</code> if the injector overrides <code>doInject</code>
+	 */
+	boolean overridesDoInject(int i) {
+		return overridden.get(i);
+	}
+
+	/**
+	 * Select the {@link org.frustra.filament.injection.ClassInjector ClassInjector}s that may apply to a class.
+	 * 
+	 * @param node a class with at least its header parsed
+	 * @return the positions of the selected injectors in registration order, which must not be modified
+	 */
+	BitSet selectInjectors(FilamentClassNode node) {
+		return injectors.select(node);
+	}
+
+	/**
+	 * Select the {@link org.frustra.filament.injection.ClassVisitorInjector ClassVisitorInjector}s that may apply to a class.
+	 * 
+	 * @param node a class with at least its header parsed
+	 * @return the positions of the selected injectors in registration order, which must not be modified
+	 */
+	BitSet selectVisitorInjectors(FilamentClassNode node) {
+		return visitorInjectors.select(node);
+	}
+
+	private static final class Selector {
+		private final BitSet always = new BitSet();
+		private final HashMap<String, BitSet> hooked = new HashMap<String, BitSet>();
+		private final HashMap<String, BitSet> byName = new HashMap<String, BitSet>();
+		private final ArrayList<Integer> patterned = new ArrayList<Integer>();
+		private final ArrayList<Pattern[]> patterns = new ArrayList<Pattern[]>();
+		private final ArrayList<Integer> annotated = new ArrayList<Integer>();
+		private final ArrayList<String[]> annotations = new ArrayList<String[]>();
+
+		private Selector(List<?> list, FilamentClassNode[] classes) {
+			for (int i = 0; i < list.size(); i++) {
+				Class<?> cls = list.get(i).getClass();
+				InjectTargetHook hooks = cls.getAnnotation(InjectTargetHook.class);
+				InjectTargetName names = cls.getAnnotation(InjectTargetName.class);
+				InjectTargetAnnotation annos = cls.getAnnotation(InjectTargetAnnotation.class);
+				if (hooks == null && names == null && annos == null) {
+					always.set(i);
+					continue;
+				}
+				if (hooks != null) {
+					for (String hook : hooks.value()) {
+						String name;
+						try {
+							name = Hooks.getClassName(hook);
+						} catch (BadHookException e) {
+							// The same as a match method failing on an undefined hook
+							continue;
+						}
+						BitSet set = hooked.get(name);
+						if (set == null) {
+							set = new BitSet();
+							hooked.put(name, set);
+						}
+						set.set(i);
+					}
+				}
+				if (names != null) {
+					Pattern[] compiled = new Pattern[names.value().length];
+					for (int j = 0; j < compiled.length; j++) {
+						compiled[j] = compile(names.value()[j]);
+					}
+					patterned.add(i);
+					patterns.add(compiled);
+				}
+				if (annos != null) {
+					String[] descs = new String[annos.value().length];
+					for (int j = 0; j < descs.length; j++) {
+						descs[j] = "L" + annos.value()[j].replace('.', '/') + ";";
+					}
+					annotated.add(i);
+					annotations.add(descs);
+				}
+			}
+			for (FilamentClassNode node : classes) {
+				BitSet selected = hooked.get(node.name);
+				selected = selected == null ? new BitSet() : (BitSet) selected.clone();
+				addTargeted(node, selected);
+				if (selected.isEmpty()) {
+					// Classes no injector targets share the same set
+					byName.put(node.name, always);
+				} else {
+					selected.or(always);
+					byName.put(node.name, selected);
+				}
+			}
+		}
+
+		private BitSet select(FilamentClassNode node) {
+			BitSet selected = byName.get(node.name);
+			if (selected != null) return selected;
+			// Only a class that isn't loaded into filament is checked on its own, since loading classes rebuilds the index
+			selected = (BitSet) always.clone();
+			BitSet named = hooked.get(node.name);
+			if (named != null) selected.or(named);
+			addTargeted(node, selected);
+			return selected;
+		}
+
+		/**
+		 * Add the injectors whose name patterns or annotations target a class.
+		 */
+		private void addTargeted(FilamentClassNode node, BitSet selected) {
+			for (int j = 0; j < patterned.size(); j++) {
+				int i = patterned.get(j);
+				if (selected.get(i)) continue;
+				for (Pattern pattern : patterns.get(j)) {
+					if (pattern.matcher(node.name).matches()) {
+						selected.set(i);
+						break;
+					}
+				}
+			}
+			for (int j = 0; j < annotated.size(); j++) {
+				int i = annotated.get(j);
+				if (selected.get(i)) continue;
+				for (String desc : annotations.get(j)) {
+					if (hasAnnotation(node.visibleAnnotations, desc) || hasAnnotation(node.invisibleAnnotations, desc)) {
+						selected.set(i);
+						break;
+					}
+				}
+			}
+		}
+
+		private static boolean hasAnnotation(List<?> annotations, String desc) {
+			if (annotations == null) return false;
+			for (Object anno : annotations) {
+				if (((AnnotationNode) anno).desc.equals(desc)) return true;
+			}
+			return false;
+		}
+
+		private static Pattern compile(String glob) {
+			String name = glob.replace('.', '/');
+			StringBuilder regex = new StringBuilder();
+			int start = 0;
+			for (int i = 0; i < name.length(); i++) {
+				if (name.charAt(i) != '*') continue;
+				if (i > start) regex.append(Pattern.quote(name.substring(start, i)));
+				if (i + 1 < name.length() && name.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+				start = i + 1;
+			}
+			if (start < name.length()) regex.append(Pattern.quote(name.substring(start)));
+			return Pattern.compile(regex.toString());
+		}
+	}
+}
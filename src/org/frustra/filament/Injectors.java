@@ -1,10 +1,16 @@
 package org.frustra.filament;
 
 import java.io.IOException;
+import java.util.BitSet;
 
 import org.frustra.filament.hooking.FilamentClassNode;
 import org.frustra.filament.injection.AnnotationInjector;
 import org.frustra.filament.injection.ClassInjector;
+import org.frustra.filament.injection.ClassVisitorInjector;
+import org.frustra.filament.injection.InjectTargetAnnotation;
+import org.frustra.filament.injection.InjectTargetHook;
+import org.frustra.filament.injection.InjectTargetName;
+import org.objectweb.asm.ClassVisitor;
 
 /**
  * The Injectors class defines all the code for processing injectors.
@@ -13,6 +19,11 @@ import org.frustra.filament.injection.ClassInjector;
  * Injectors can be loaded by calling <code>Injectors.load(packageName)</code>, but must be loaded after a {@link FilamentClassLoader} is created.
  * <p>
  * There is one build-in injector called the {@link AnnotationInjector}. This will be loaded along with any user-specified injectors. 
+ * <p>
+ * Injectors extending {@link ClassVisitorInjector} are run as a chain of visitors while each class is written, after all tree injectors.
+ * <p>
+ * Injectors declaring their targets with {@link InjectTargetHook}, {@link InjectTargetName}, or {@link InjectTargetAnnotation}
+ * are only matched against the classes meeting those targets, found through an index built after hooking.
  * 
  * @author Jacob Wirth
  * @see FilamentClassLoader
@@ -30,22 +41,20 @@ public final class Injectors {
 	 * The {@link AnnotationInjector} is automatically loaded into the Filament instance by default.
 	 * A FilamentClassLoader must be created prior to registering injectors.
 	 * <p>
-	 * An injector is any class that extends {@link ClassInjector}.
+	 * An injector is any class that extends {@link ClassInjector} or {@link ClassVisitorInjector}.
 	 * 
 	 * @param packageName the name of the package containing injectors
 	 * @throws ReflectiveOperationException if the package or any classes cannot be loaded
 	 * @throws IOException if one of the injector classes could not be read
 	 * @see ClassInjector
+	 * @see ClassVisitorInjector
 	 */
 	public static void register(String packageName) throws ReflectiveOperationException, IOException {
 		String[] injectors = Filament.filament.classLoader.listPackage(packageName);
 		for (String name : injectors) {
-			Class<?> cls = Filament.filament.classLoader.loadClass(name);
-			Filament.filament.injectors.add((ClassInjector) cls.newInstance());
-			if (Filament.filament.debug) {
-				System.out.println("Registered Injector: " + cls.getSimpleName());
-			}
+			addInjector(Filament.filament.classLoader.loadClass(name));
 		}
+		Filament.filament.invalidate();
 	}
 	
 	/**
@@ -54,40 +63,120 @@ public final class Injectors {
 	 * The {@link AnnotationInjector} is automatically loaded into the Filament instance by default.
 	 * A FilamentClassLoader must be created prior to registering injectors.
 	 * <p>
-	 * An injector is any class that extends {@link ClassInjector}.
+	 * An injector is any class that extends {@link ClassInjector} or {@link ClassVisitorInjector}.
 	 * 
 	 * @param injectors a list of injectors to register
 	 * @throws ReflectiveOperationException if any classes cannot be instantiated
 	 * @see ClassInjector
+	 * @see ClassVisitorInjector
 	 */
 	public static void register(Class<?>... injectors) throws ReflectiveOperationException {
 		for (Class<?> cls : injectors) {
-			Filament.filament.injectors.add((ClassInjector) cls.newInstance());
-			if (Filament.filament.debug) {
-				System.out.println("Registered Injector: " + cls.getSimpleName());
-			}
+			addInjector(cls);
+		}
+		Filament.filament.invalidate();
+	}
+
+	private static void addInjector(Class<?> cls) throws ReflectiveOperationException {
+		Object injector = cls.newInstance();
+		if (injector instanceof ClassVisitorInjector) {
+			Filament.filament.visitorInjectors.add((ClassVisitorInjector) injector);
+		} else {
+			Filament.filament.injectors.add((ClassInjector) injector);
+		}
+		if (Filament.filament.debug) {
+			System.out.println("Registered Injector: " + cls.getSimpleName());
 		}
 	}
 
 	/**
 	 * Run any applicable registered injectors on the specified class.
-	 * The class will be modified in-place.
+	 * The class will be modified in-place. Injectors are selected from the class header first, and a lazily loaded class is left unparsed if none apply.
+	 * Otherwise its members are parsed before matching, and it is fully parsed before being injected.
+	 * <p>
+	 * Each injector is only ever run once on a class, so calling this again only runs injectors registered since the last call.
+	 * If any injector matches the class, it is marked as modified. An injector overriding {@link ClassInjector#doInject(FilamentClassNode)}
+	 * may change a class without saying so, so every class it is run on is fully parsed and marked as modified.
+	 * Injectors are run again after the class is reverted by {@link Hooks#load(String)}.
 	 * 
 	 * @param node the class to inject
 	 */
 	public static void injectClass(FilamentClassNode node) {
 		if (node == null) return;
+		synchronized (node) {
+			int done = node.getInjected();
+			int count = Filament.filament.injectors.size();
+			boolean annotated = done < 1 && node.getFilamentAnnotations() != 0;
+			BitSet selected = getIndex().selectInjectors(node);
+			int first = selected.nextSetBit(Math.max(done - 1, 0));
+			if (!annotated && (first < 0 || first >= count)) {
+				node.setInjected(count + 1);
+				return;
+			}
+			node.expand(FilamentClassNode.MEMBERS);
+			if (annotated) inject(annotationInjector, node, false);
+			InjectorIndex index = getIndex();
+			for (int i = first; i >= 0 && i < count; i = selected.nextSetBit(i + 1)) {
+				inject(Filament.filament.injectors.get(i), node, index.overridesDoInject(i));
+			}
+			node.setInjected(count + 1);
+		}
+	}
+
+	/**
+	 * Run a single injector on a class. Injectors mark the classes they change through {@link ClassInjector#prepare(FilamentClassNode)},
+	 * unless they override {@link ClassInjector#doInject(FilamentClassNode)}, in which case the class is prepared for them.
+	 */
+	private static void inject(ClassInjector injector, FilamentClassNode node, boolean overridden) {
 		try {
-			annotationInjector.doInject(node);
+			if (overridden) node.expand(FilamentClassNode.FULL);
+			injector.doInject(node);
+			if (overridden) node.setModified(true);
 		} catch (Throwable e) {
 			e.printStackTrace();
+			prepareFailed(node);
 		}
-		for (ClassInjector injector : Filament.filament.injectors) {
+	}
+
+	/**
+	 * Prepare a class to be written from its tree after an injector threw on it, since the injector may have changed it before failing.
+	 * A lazily loaded class may not have its code parsed yet, so it is fully parsed first, or written from its original bytes if that fails.
+	 */
+	private static void prepareFailed(FilamentClassNode node) {
+		try {
+			node.expand(FilamentClassNode.FULL);
+			node.setModified(true);
+		} catch (IllegalStateException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Chain the visitor stages of every registered {@link ClassVisitorInjector} matching the specified class in front of a visitor.
+	 * Stages run in the order their injectors were registered.
+	 * 
+	 * @param node the class being written
+	 * @param cv the visitor that receives the injected class, usually a {@link org.objectweb.asm.ClassWriter ClassWriter}
+	 * @return the first visitor of the chain, or cv if no injectors match
+	 */
+	public static ClassVisitor chainVisitors(FilamentClassNode node, ClassVisitor cv) {
+		BitSet selected = getIndex().selectVisitorInjectors(node);
+		for (int i = selected.previousSetBit(Filament.filament.visitorInjectors.size() - 1); i >= 0; i = selected.previousSetBit(i - 1)) {
 			try {
-				injector.doInject(node);
+				cv = Filament.filament.visitorInjectors.get(i).doInject(node, cv);
 			} catch (Throwable e) {
 				e.printStackTrace();
 			}
 		}
+		return cv;
+	}
+
+	private static InjectorIndex getIndex() {
+		InjectorIndex index = Filament.filament.injectorIndex;
+		if (index == null) {
+			index = new InjectorIndex();
+			Filament.filament.injectorIndex = index;
+		}
+		return index;
 	}
 }
@@ -0,0 +1,220 @@
+package org.frustra.filament;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * MappedJarFile is a read-only view of a jar that is memory-mapped instead of being opened through {@link java.util.jar.JarFile}.
+ * The central directory is parsed once when the jar is opened, and entries are read straight out of the mapped buffer.
+ * Stored entries are copied once, and deflated entries are inflated directly into an array of their final size.
+ * <p>
+ * Signatures are not verified. ZIP64 jars and jars larger than 2GB are not supported and will throw a {@link ZipException}.
+ * MappedJarFile is safe to read from multiple threads.
+ *
+ * @see FilamentClassLoader#loadJar(File)
+ */
+final class MappedJarFile {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_HEADER = 0x06054b50;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * Map a jar into memory and read its central directory.
+	 * The file is not held open after the constructor returns.
+	 *
+	 * @param file a jar to be mapped
+	 * @throws IOException if the jar couldn't be mapped or is not a supported zip file
+	 */
+	public MappedJarFile(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) throw new ZipException("Jar is too large to map: " + file);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			raf.close();
+		}
+		readCentralDirectory();
+	}
+
+	private void readCentralDirectory() throws ZipException {
+		int end = -1;
+		for (int i = buffer.limit() - 22; i >= Math.max(0, buffer.limit() - 22 - 0xFFFF); i--) {
+			if (buffer.getInt(i) == END_HEADER) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) throw new ZipException("Couldn't find central directory: " + file);
+		int count = buffer.getShort(end + 10) & 0xFFFF;
+		long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || offset == 0xFFFFFFFFL) throw new ZipException("ZIP64 jars are not supported: " + file);
+
+		int pos = (int) offset;
+		for (int i = 0; i < count; i++) {
+			if (pos + 46 > buffer.limit() || buffer.getInt(pos) != CENTRAL_HEADER) throw new ZipException("Invalid central directory entry: " + file);
+			int method = buffer.getShort(pos + 10) & 0xFFFF;
+			long compressedSize = buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+			long size = buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+			int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+			int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+			int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+			long localHeader = buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+			if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeader == 0xFFFFFFFFL) {
+				throw new ZipException("ZIP64 jars are not supported: " + file);
+			}
+
+			byte[] name = new byte[nameLength];
+			ByteBuffer dup = buffer.duplicate();
+			dup.position(pos + 46);
+			dup.get(name);
+
+			Entry entry = new Entry(new String(name, UTF8), method, (int) compressedSize, (int) size, (int) localHeader);
+			if (!entries.containsKey(entry.name)) entries.put(entry.name, entry);
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * Get the file this jar was mapped from.
+	 *
+	 * @return the jar's file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get all the entries in this jar, in central directory order.
+	 *
+	 * @return an unmodifiable collection of entries
+	 */
+	public Collection<Entry> entries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+
+	/**
+	 * Get an entry by its path within the jar.
+	 *
+	 * @param name the path of an entry
+	 * @return the entry, or <code>null</code> if it doesn't exist
+	 */
+	public Entry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * Read the contents of an entry by its path within the jar.
+	 *
+	 * @param name the path of an entry
+	 * @return the uncompressed entry bytes, or <code>null</code> if the entry doesn't exist or is a directory
+	 * @throws IOException if the entry couldn't be read
+	 */
+	public byte[] read(String name) throws IOException {
+		Entry entry = entries.get(name);
+		if (entry == null || entry.isDirectory()) return null;
+		return read(entry);
+	}
+
+	/**
+	 * Open a stream to the contents of an entry by its path within the jar.
+	 *
+	 * @param name the path of an entry
+	 * @return a stream of the uncompressed entry bytes, or <code>null</code> if the entry doesn't exist or is a directory
+	 * @throws IOException if the entry couldn't be read
+	 */
+	public InputStream getInputStream(String name) throws IOException {
+		byte[] buf = read(name);
+		return buf == null ? null : new ByteArrayInputStream(buf);
+	}
+
+	/**
+	 * Read the contents of an entry.
+	 *
+	 * @param entry an entry from this jar
+	 * @return the uncompressed entry bytes
+	 * @throws IOException if the entry couldn't be read
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		int header = entry.localHeader;
+		if (header + 30 > buffer.limit() || buffer.getInt(header) != LOCAL_HEADER) throw new ZipException("Invalid local header: " + entry.name);
+		int data = header + 30 + (buffer.getShort(header + 26) & 0xFFFF) + (buffer.getShort(header + 28) & 0xFFFF);
+		if (data + entry.compressedSize > buffer.limit()) throw new ZipException("Truncated entry: " + entry.name);
+
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(data);
+		byte[] out = new byte[entry.size];
+		if (entry.method == 0) {
+			dup.get(out);
+		} else if (entry.method == 8) {
+			// One extra dummy byte is required by the inflater when using nowrap
+			byte[] in = new byte[entry.compressedSize + 1];
+			dup.get(in, 0, entry.compressedSize);
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(in);
+				int len = 0;
+				while (len < out.length && !inflater.finished()) {
+					int n = inflater.inflate(out, len, out.length - len);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+					len += n;
+				}
+				if (len != out.length) throw new ZipException("Invalid entry size: " + entry.name);
+			} catch (DataFormatException e) {
+				throw new ZipException("Invalid deflated entry: " + entry.name);
+			} finally {
+				inflater.end();
+			}
+		} else {
+			throw new ZipException("Unsupported compression method " + entry.method + ": " + entry.name);
+		}
+		return out;
+	}
+
+	/**
+	 * An entry listed in the central directory of a {@link MappedJarFile}.
+	 */
+	static final class Entry {
+		public final String name;
+		private final int method, compressedSize, size, localHeader;
+
+		private Entry(String name, int method, int compressedSize, int size, int localHeader) {
+			this.name = name;
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localHeader = localHeader;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public String toString() {
+			return name;
+		}
+	}
+}
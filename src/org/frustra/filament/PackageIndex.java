@@ -0,0 +1,96 @@
+package org.frustra.filament;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipException;
+
+/**
+ * PackageIndex maps each package of a jar to the names of the classes it directly contains.
+ * The index is built from entry paths alone, without reading any classes.
+ * It is cached per jar, and rebuilt when the jar's modification time or length changes.
+ *
+ * @see FilamentClassLoader#listPackage(String)
+ */
+final class PackageIndex {
+	private static final ConcurrentHashMap<File, PackageIndex> indexes = new ConcurrentHashMap<File, PackageIndex>();
+
+	private final HashMap<String, ArrayList<String>> packages = new HashMap<String, ArrayList<String>>();
+	private final long lastModified;
+	private final long length;
+
+	private PackageIndex(long lastModified, long length) {
+		this.lastModified = lastModified;
+		this.length = length;
+	}
+
+	/**
+	 * Get the index of a jar, building it if the jar wasn't indexed yet or changed since it was.
+	 *
+	 * @param jar a jar of classes
+	 * @return the index of the jar
+	 * @throws IOException if the jar couldn't be read
+	 */
+	static PackageIndex get(File jar) throws IOException {
+		File key = jar.getAbsoluteFile();
+		long lastModified = key.lastModified();
+		long length = key.length();
+		PackageIndex index = indexes.get(key);
+		if (index == null || index.lastModified != lastModified || index.length != length) {
+			index = new PackageIndex(lastModified, length);
+			index.addJar(key);
+			indexes.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * List the classes directly contained in a package.
+	 *
+	 * @param packageName the name of a package
+	 * @return an array containing the full name of each class, or <code>null</code> if the package isn't part of this code source
+	 */
+	String[] list(String packageName) {
+		ArrayList<String> classes = packages.get(packageName);
+		return classes == null ? null : classes.toArray(new String[classes.size()]);
+	}
+
+	private void addJar(File jar) throws IOException {
+		try {
+			MappedJarFile file = new MappedJarFile(jar);
+			for (MappedJarFile.Entry entry : file.entries()) {
+				if (!entry.isDirectory()) add(entry.name);
+			}
+		} catch (ZipException e) {
+			JarFile file = new JarFile(jar);
+			try {
+				Enumeration<JarEntry> entries = file.entries();
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					if (!entry.isDirectory()) add(entry.getName());
+				}
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	private void add(String path) {
+		String fileName = path.substring(path.lastIndexOf('/') + 1);
+		if (fileName.startsWith(".") || !fileName.endsWith(".class")) return;
+		String className = path.substring(0, path.length() - 6).replace('/', '.');
+		int split = className.lastIndexOf('.');
+		String packageName = split < 0 ? "" : className.substring(0, split);
+		ArrayList<String> classes = packages.get(packageName);
+		if (classes == null) {
+			classes = new ArrayList<String>();
+			packages.put(packageName, classes);
+		}
+		classes.add(className);
+	}
+}
@@ -0,0 +1,144 @@
+package org.frustra.filament;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.InsnPattern;
+import org.frustra.filament.hooking.types.PatternProvider;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * PatternMatcher searches methods for the {@link InsnPattern} of every {@link PatternProvider} in a hooking pass.
+ * <p>
+ * Patterns are grouped by the opcode of their first instruction, so each instruction of a method is only tried against
+ * the patterns that could start with it. Matches may overlap, but each pattern matches at most once per starting instruction.
+ *
+ * @see HookingPlan
+ */
+final class PatternMatcher {
+	private final PatternProvider[] providers;
+	private final int[] bits;
+	private final InsnPattern[] patterns;
+	private final int[][] byOpcode = new int[256][];
+	private final int[] anyOpcode;
+	private final int maxCaptures;
+	private final AtomicReference<Buffer> spare = new AtomicReference<Buffer>();
+
+	/**
+	 * Compile the patterns of some pattern providers.
+	 * A provider whose pattern can't be created records the error and never matches.
+	 *
+	 * @param providers the pattern providers of a hooking pass
+	 * @param bits the bit of each provider in the method bitsets of the {@link HookingPlan}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	PatternMatcher(PatternProvider[] providers, int[] bits) {
+		this.providers = providers;
+		this.bits = bits;
+		this.patterns = new InsnPattern[providers.length];
+		ArrayList<Integer>[] lists = new ArrayList[257];
+		int captures = 0;
+		for (int i = 0; i < providers.length; i++) {
+			patterns[i] = providers[i].doGetPattern();
+			if (patterns[i] == null) continue;
+			captures = Math.max(captures, patterns[i].getCaptureCount());
+			int first = patterns[i].getFirstOpcode();
+			int slot = first < 0 || first > 255 ? 256 : first;
+			if (lists[slot] == null) lists[slot] = new ArrayList<Integer>();
+			lists[slot].add(i);
+		}
+		for (int op = 0; op < 256; op++) {
+			byOpcode[op] = toArray(lists[op]);
+		}
+		anyOpcode = toArray(lists[256]);
+		maxCaptures = captures;
+	}
+
+	/**
+	 * Take the working space used to scan methods, reusing the last buffer given back if no other thread is using it.
+	 * Each thread scanning methods at the same time needs its own buffer.
+	 *
+	 * @return a buffer not used by any other thread
+	 */
+	Buffer takeBuffer() {
+		Buffer buffer = spare.getAndSet(null);
+		return buffer != null ? buffer : new Buffer(maxCaptures, patterns);
+	}
+
+	/**
+	 * Give back a buffer once a thread is done scanning methods, so the next scan doesn't allocate a new one.
+	 *
+	 * @param buffer a buffer taken from this matcher
+	 */
+	void releaseBuffer(Buffer buffer) {
+		spare.set(buffer);
+	}
+
+	/**
+	 * Search a method for the pattern of every provider still matching it, and pass each match to its provider.
+	 *
+	 * @param node the class containing the method
+	 * @param m the method to search, which must be fully parsed
+	 * @param methodSet the bitset of providers still matching the method
+	 * @param buffer the working space to use
+	 */
+	void scan(FilamentClassNode node, MethodNode m, long[] methodSet, Buffer buffer) {
+		int count = 0;
+		AbstractInsnNode[] insns = buffer.insns;
+		for (AbstractInsnNode insn = m.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+			if (insn.getOpcode() < 0) continue;
+			if (count == insns.length) {
+				AbstractInsnNode[] grown = new AbstractInsnNode[count * 2];
+				System.arraycopy(insns, 0, grown, 0, count);
+				insns = buffer.insns = grown;
+			}
+			insns[count++] = insn;
+		}
+		for (int i = 0; i < count; i++) {
+			matchAt(node, m, methodSet, byOpcode[insns[i].getOpcode()], insns, i, count, buffer);
+			matchAt(node, m, methodSet, anyOpcode, insns, i, count, buffer);
+		}
+		// Don't keep instructions of this method alive
+		for (int i = 0; i < count; i++) {
+			insns[i] = null;
+		}
+	}
+
+	private void matchAt(FilamentClassNode node, MethodNode m, long[] methodSet, int[] candidates, AbstractInsnNode[] insns, int start, int count, Buffer buffer) {
+		for (int j = 0; j < candidates.length; j++) {
+			int i = candidates[j];
+			if (!HookingPlan.test(methodSet, bits[i])) continue;
+			if (patterns[i].matches(insns, start, count, buffer.captures)) {
+				AbstractInsnNode[] captured = buffer.captured[i];
+				System.arraycopy(buffer.captures, 0, captured, 0, captured.length);
+				// A provider accepting the match may keep the array, so only then is it replaced
+				if (providers[i].doMatch(node, m, captured)) buffer.captured[i] = new AbstractInsnNode[captured.length];
+			}
+		}
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		if (list == null) return new int[0];
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	static final class Buffer {
+		private AbstractInsnNode[] insns = new AbstractInsnNode[64];
+		private final AbstractInsnNode[] captures;
+		private final AbstractInsnNode[][] captured;
+
+		private Buffer(int captures, InsnPattern[] patterns) {
+			this.captures = new AbstractInsnNode[captures];
+			this.captured = new AbstractInsnNode[patterns.length][];
+			for (int i = 0; i < patterns.length; i++) {
+				if (patterns[i] != null) captured[i] = new AbstractInsnNode[patterns[i].getCaptureCount()];
+			}
+		}
+	}
+}
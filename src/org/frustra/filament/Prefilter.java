@@ -0,0 +1,92 @@
+package org.frustra.filament;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.ClassProvider;
+import org.frustra.filament.hooking.types.HookProvider;
+import org.frustra.filament.hooking.types.RequireConstant;
+import org.frustra.filament.hooking.types.RequireFieldDesc;
+import org.frustra.filament.hooking.types.RequireInterface;
+import org.frustra.filament.hooking.types.RequireMethodDesc;
+import org.frustra.filament.hooking.types.RequireOpcode;
+import org.frustra.filament.hooking.types.RequireSuperClass;
+
+/**
+ * Prefilter holds the class requirements declared on a {@link ClassProvider} with annotations such as {@link RequireConstant}.
+ * Only classes meeting every requirement are passed to the provider's matchers.
+ *
+ * @see ClassIndex
+ */
+final class Prefilter {
+	private static final String[] NONE = new String[0];
+
+	final String[] constants;
+	final String superName;
+	final String[] interfaces;
+	final String[] fieldDescs;
+	final String[] methodDescs;
+	final int[] opcodes;
+
+	private Prefilter(String[] constants, String superName, String[] interfaces, String[] fieldDescs, String[] methodDescs, int[] opcodes) {
+		this.constants = constants;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.fieldDescs = fieldDescs;
+		this.methodDescs = methodDescs;
+		this.opcodes = opcodes;
+	}
+
+	/**
+	 * Read the requirements declared on a hook provider.
+	 *
+	 * @param hook a hook provider
+	 * @return the provider's requirements, or <code>null</code> if it isn't a {@link ClassProvider} or declares none
+	 */
+	static Prefilter of(HookProvider hook) {
+		if (!(hook instanceof ClassProvider)) return null;
+		Class<?> cls = hook.getClass();
+		RequireConstant constant = cls.getAnnotation(RequireConstant.class);
+		RequireSuperClass superClass = cls.getAnnotation(RequireSuperClass.class);
+		RequireInterface iface = cls.getAnnotation(RequireInterface.class);
+		RequireFieldDesc field = cls.getAnnotation(RequireFieldDesc.class);
+		RequireMethodDesc method = cls.getAnnotation(RequireMethodDesc.class);
+		RequireOpcode opcode = cls.getAnnotation(RequireOpcode.class);
+		if (constant == null && superClass == null && iface == null && field == null && method == null && opcode == null) return null;
+		return new Prefilter(constant == null ? NONE : constant.value(), superClass == null ? null : superClass.value(), iface == null ? NONE : iface.value(), field == null ? NONE : field.value(), method == null ? NONE : method.value(), opcode == null ? new int[0] : opcode.value());
+	}
+
+	/**
+	 * Check if these requirements need the shape of a class, collected by {@link FilamentClassNode#getShape()}.
+	 *
+	 * @return <code>true</code> if a field or method description or an opcode is required
+	 */
+	boolean needsShape() {
+		return fieldDescs.length > 0 || methodDescs.length > 0 || opcodes.length > 0;
+	}
+
+	/**
+	 * Check a single class against these requirements, without using a {@link ClassIndex}.
+	 *
+	 * @param node the class to check
+	 * @param shape the shape of the class, which may only be <code>null</code> if no shape is needed
+	 * @return <code>true</code> if the class meets every requirement
+	 */
+	boolean accepts(FilamentClassNode node, FilamentClassNode.Shape shape) {
+		if (superName != null && !superName.equals(node.superName)) return false;
+		for (String name : interfaces) {
+			if (!node.interfaces.contains(name)) return false;
+		}
+		for (String str : constants) {
+			if (!node.containsConstant(str)) return false;
+		}
+		for (String desc : fieldDescs) {
+			if (!shape.containsFieldDesc(desc)) return false;
+		}
+		for (String desc : methodDescs) {
+			if (!shape.containsMethodDesc(desc)) return false;
+		}
+		for (int op : opcodes) {
+			if (!shape.containsOpcode(op)) return false;
+		}
+		return true;
+	}
+}
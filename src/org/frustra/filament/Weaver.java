@@ -0,0 +1,132 @@
+package org.frustra.filament;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Weaver resolves hooks and runs injectors on a jar ahead of time, and writes the transformed classes to a new jar.
+ * The woven jar can then be run with a normal class loader, without filament or ASM.
+ * <p>
+ * Usage: <blockquote>
+ *
+ * <pre>
+ *     java org.frustra.filament.Weaver input.jar output.jar hooksPackage [injectorPackage...]
+ * </pre>
+ *
+ * </blockquote>The hook provider and injector packages must be on the class path, where {@link FilamentClassLoader#listPackage(String)} can find them.
+ * <p>
+ * Every class of the input jar is written as {@link FilamentClassLoader#getClassBytes(String)} returns it, and every other entry is copied as it is.
+ * Signature files are left out, since they no longer match the woven classes.
+ * The resolved hooks are listed in <code>META-INF/filament/hooks.txt</code>.
+ *
+ * @see Hooks
+ * @see Injectors
+ */
+public final class Weaver {
+	/**
+	 * The entry of the woven jar listing the resolved hooks.
+	 */
+	public static final String HOOKS_ENTRY = "META-INF/filament/hooks.txt";
+
+	private Weaver() {}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java " + Weaver.class.getName() + " input.jar output.jar hooksPackage [injectorPackage...]");
+			System.exit(1);
+		}
+		String[] injectors = new String[args.length - 3];
+		System.arraycopy(args, 3, injectors, 0, injectors.length);
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.setParallelism(Runtime.getRuntime().availableProcessors());
+		int count = weave(loader, new File(args[0]), new File(args[1]), args[2], injectors);
+		System.out.println("Wove " + count + " classes into " + args[1]);
+	}
+
+	/**
+	 * Load a jar into a filament class loader, resolve its hooks and run its injectors, and write the transformed jar.
+	 *
+	 * @param loader a new filament class loader
+	 * @param input the jar to weave
+	 * @param output the jar to write
+	 * @param hooksPackage the name of the package containing hook providers
+	 * @param injectorPackages the names of the packages containing injectors
+	 * @return the number of classes written
+	 * @throws Exception if the jar couldn't be read or written, or the hooks couldn't be resolved
+	 */
+	public static int weave(FilamentClassLoader loader, File input, File output, String hooksPackage, String... injectorPackages) throws Exception {
+		loader.loadJar(input);
+		Hooks.load(hooksPackage);
+		for (String packageName : injectorPackages) {
+			Injectors.register(packageName);
+		}
+		loader.precompute();
+
+		int count = 0;
+		JarFile jar = new JarFile(input);
+		try {
+			JarOutputStream out = new JarOutputStream(new FileOutputStream(output));
+			try {
+				Enumeration<JarEntry> entries = jar.entries();
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					String name = entry.getName();
+					if (isSignature(name) || name.equals(HOOKS_ENTRY)) continue;
+					byte[] buf = null;
+					if (name.endsWith(".class")) buf = loader.getClassBytes(name.substring(0, name.length() - 6).replace('/', '.'));
+					if (buf != null) {
+						JarEntry woven = new JarEntry(name);
+						woven.setTime(entry.getTime());
+						out.putNextEntry(woven);
+						out.write(buf);
+						count++;
+					} else {
+						JarEntry copy = new JarEntry(name);
+						copy.setTime(entry.getTime());
+						out.putNextEntry(copy);
+						if (!entry.isDirectory()) copy(jar.getInputStream(entry), out);
+					}
+					out.closeEntry();
+				}
+
+				out.putNextEntry(new JarEntry(HOOKS_ENTRY));
+				StringBuilder hooks = new StringBuilder();
+				for (String line : Hooks.describeHooks()) {
+					hooks.append(line).append('\n');
+				}
+				out.write(hooks.toString().getBytes("UTF-8"));
+				out.closeEntry();
+			} finally {
+				out.close();
+			}
+		} finally {
+			jar.close();
+		}
+		return count;
+	}
+
+	private static boolean isSignature(String name) {
+		if (!name.startsWith("META-INF/") || name.indexOf('/', 9) >= 0) return false;
+		String upper = name.toUpperCase();
+		return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC") || upper.startsWith("META-INF/SIG-");
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		try {
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				out.write(buf, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -1,16 +1,34 @@
 package org.frustra.filament.hooking;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
 
 import org.frustra.filament.FilamentClassLoader;
 import org.frustra.filament.Hooks;
+import org.frustra.filament.injection.annotations.OverrideMethod;
+import org.frustra.filament.injection.annotations.ProxyMethod;
+import org.frustra.filament.injection.annotations.ReplaceSuperClass;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
 
 /**
  * FilamentClassNode is an ASM {@link ClassNode} that contains extra information about a class used by filament.
@@ -20,8 +38,51 @@ import org.objectweb.asm.tree.ClassNode;
  * @see FilamentClassLoader
  */
 public class FilamentClassNode extends ClassNode {
+	/**
+	 * Only the class header is parsed: name, super class, interfaces, access flags, and class annotations.
+	 * The <code>fields</code> and <code>methods</code> lists are empty.
+	 */
+	public static final int HEADER = 0;
+	/**
+	 * Fields and method signatures are parsed, but methods contain no instructions.
+	 */
+	public static final int MEMBERS = 1;
+	/**
+	 * The full class tree is parsed, including all method instructions.
+	 */
+	public static final int FULL = 2;
+
+	/**
+	 * Set in {@link #getFilamentAnnotations()} if this class may use {@link OverrideMethod}.
+	 */
+	public static final int OVERRIDE_METHOD = 1;
+	/**
+	 * Set in {@link #getFilamentAnnotations()} if this class may use {@link ProxyMethod}.
+	 */
+	public static final int PROXY_METHOD = 2;
+	/**
+	 * Set in {@link #getFilamentAnnotations()} if this class may use {@link ReplaceSuperClass}.
+	 */
+	public static final int REPLACE_SUPER_CLASS = 4;
+
+	private static final int UTF8 = 1;
+	private static final String[] ANNOTATION_DESCS = { Type.getDescriptor(OverrideMethod.class), Type.getDescriptor(ProxyMethod.class), Type.getDescriptor(ReplaceSuperClass.class) };
+	private static final byte[][] ANNOTATION_BYTES = new byte[ANNOTATION_DESCS.length][];
+	static {
+		for (int i = 0; i < ANNOTATION_DESCS.length; i++) {
+			ANNOTATION_BYTES[i] = ANNOTATION_DESCS[i].getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
 	private ArrayList<String> constants = new ArrayList<String>();
 	private ArrayList<Type> references = new ArrayList<Type>();
+	private byte[] bytes = null;
+	private byte[] digest = null;
+	private boolean lazy = false;
+	private volatile int level = FULL;
+	private int injected = 0;
+	private boolean modified = false;
+	private int annotations = -1;
 	
 	public FilamentClassNode() {
 		super(Opcodes.ASM5);
@@ -36,13 +97,54 @@ public class FilamentClassNode extends ClassNode {
 	 * @throws IOException if a class cannot be read from the input stream
 	 */
 	public static FilamentClassNode loadFromStream(InputStream stream) throws IOException {
+		return loadFromStream(stream, false);
+	}
+
+	/**
+	 * Define a FilamentClassNode from an input stream, such as a file.
+	 * 
+	 * @param stream an input stream of a binary java class
+	 * @param lazy <code>true</code> if only the class header should be parsed until more is needed
+	 * @return a new FilamentClassNode defining the class from the input stream
+	 * @throws IOException if a class cannot be read from the input stream
+	 * @see #loadFromBytes(byte[], boolean)
+	 */
+	public static FilamentClassNode loadFromStream(InputStream stream, boolean lazy) throws IOException {
+		if (stream == null) throw new IOException("Class not found");
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(stream.available(), 1024));
+		byte[] buf = new byte[8192];
+		int len;
+		while ((len = stream.read(buf)) > 0) {
+			out.write(buf, 0, len);
+		}
+		return loadFromBytes(out.toByteArray(), lazy);
+	}
+
+	/**
+	 * Define a FilamentClassNode from the bytes of a binary java class.
+	 * <p>
+	 * If lazy is <code>true</code>, only the class header and String constants are read up front.
+	 * Fields, methods, and instructions are parsed from the original bytes the first time they are requested with {@link #expand(int)}.
+	 * 
+	 * @param buf the bytes of a binary java class
+	 * @param lazy <code>true</code> if only the class header should be parsed until more is needed
+	 * @return a new FilamentClassNode defining the class
+	 */
+	public static FilamentClassNode loadFromBytes(byte[] buf, boolean lazy) {
 		FilamentClassNode node = new FilamentClassNode();
-		ClassReader reader = new ClassReader(stream);
-		reader.accept(node, ClassReader.SKIP_DEBUG);
-		char[] buf = new char[reader.getMaxStringLength()];
+		ClassReader reader = new ClassReader(buf);
+		node.lazy = lazy;
+		node.read(reader, lazy ? HEADER : FULL);
+		char[] cbuf = new char[reader.getMaxStringLength()];
+		node.annotations = 0;
 		for (int i = 0; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+			if (offset > 0 && buf[offset - 1] == UTF8) {
+				node.annotations |= findAnnotation(buf, offset + 2, reader.readUnsignedShort(offset));
+				continue;
+			}
 			try {
-				Object constant = reader.readConst(i, buf);
+				Object constant = reader.readConst(i, cbuf);
 				if (constant instanceof String) {
 					node.constants.add((String) constant);
 				} else if (constant instanceof Type) {
@@ -50,11 +152,190 @@ public class FilamentClassNode extends ClassNode {
 				}
 			} catch (Exception e) {}
 		}
-		node.access &= ~(Opcodes.ACC_FINAL | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE);
-		node.access |= Opcodes.ACC_PUBLIC;
+		node.bytes = buf;
+		node.access = makePublic(node.access);
 		return node;
 	}
+
+	private void read(ClassReader reader, int level) {
+		accept(reader, this, level);
+		this.level = level;
+	}
+
+	private static void accept(ClassReader reader, ClassNode node, int level) {
+		if (level == HEADER) {
+			reader.accept(new HeaderVisitor(node), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		} else {
+			reader.accept(node, level == FULL ? ClassReader.SKIP_DEBUG : ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG);
+		}
+	}
+
+	/**
+	 * Take every part of a class from a separately parsed node.
+	 * Each field is replaced in one assignment, so the name and header are never missing for threads reading them without the lock.
+	 */
+	private void replace(ClassNode parsed) {
+		version = parsed.version;
+		access = makePublic(parsed.access);
+		name = parsed.name;
+		signature = parsed.signature;
+		superName = parsed.superName;
+		interfaces = parsed.interfaces;
+		sourceFile = parsed.sourceFile;
+		sourceDebug = parsed.sourceDebug;
+		outerClass = parsed.outerClass;
+		outerMethod = parsed.outerMethod;
+		outerMethodDesc = parsed.outerMethodDesc;
+		visibleAnnotations = parsed.visibleAnnotations;
+		invisibleAnnotations = parsed.invisibleAnnotations;
+		visibleTypeAnnotations = parsed.visibleTypeAnnotations;
+		invisibleTypeAnnotations = parsed.invisibleTypeAnnotations;
+		attrs = parsed.attrs;
+		innerClasses = parsed.innerClasses;
+		fields = parsed.fields;
+		methods = parsed.methods;
+	}
+
+	private static int makePublic(int access) {
+		return (access & ~(Opcodes.ACC_FINAL | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE)) | Opcodes.ACC_PUBLIC;
+	}
+
+	/**
+	 * Get how much of this class has been parsed.
+	 * 
+	 * @return one of {@link #HEADER}, {@link #MEMBERS}, or {@link #FULL}
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Get the original bytes this class was loaded from.
+	 * 
+	 * @return the unmodified class bytes, or <code>null</code> if the class wasn't loaded from bytes
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get a SHA-1 digest of the original bytes this class was loaded from.
+	 * The digest is only calculated once.
+	 * 
+	 * @return the digest of the unmodified class bytes, or <code>null</code> if the class wasn't loaded from bytes
+	 */
+	public byte[] getDigest() {
+		if (digest == null && bytes != null) {
+			try {
+				digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return digest;
+	}
+
+	/**
+	 * Make sure this class is parsed at least to the specified level.
+	 * Classes that were not loaded lazily are always fully parsed.
+	 * <p>
+	 * The header is left as it is, and the members are parsed separately before being added to this class.
+	 * Expanding from {@link #MEMBERS} to {@link #FULL} fills in the existing {@link MethodNode} objects,
+	 * so any hooks already referencing them remain valid.
+	 * 
+	 * @param level one of {@link #HEADER}, {@link #MEMBERS}, or {@link #FULL}
+	 */
+	@SuppressWarnings("unchecked")
+	public void expand(int level) {
+		if (this.level >= level) return;
+		synchronized (this) {
+			if (this.level >= level) return;
+			ClassReader reader = new ClassReader(bytes);
+			if (this.level == HEADER) {
+				ClassNode parsed = new ClassNode(Opcodes.ASM5);
+				accept(reader, parsed, level);
+				fields = parsed.fields;
+				methods = parsed.methods;
+			} else {
+				ClassNode full = new ClassNode(Opcodes.ASM5);
+				reader.accept(full, ClassReader.SKIP_DEBUG);
+				List<MethodNode> parsed = (List<MethodNode>) full.methods;
+				if (parsed.size() != methods.size()) throw new IllegalStateException("Methods of " + name + " were modified before being expanded");
+				for (int i = 0; i < parsed.size(); i++) {
+					MethodNode m = (MethodNode) methods.get(i);
+					MethodNode src = parsed.get(i);
+					if (!m.name.equals(src.name) || !m.desc.equals(src.desc)) throw new IllegalStateException("Methods of " + name + " were modified before being expanded");
+					m.instructions = src.instructions;
+					m.tryCatchBlocks = src.tryCatchBlocks;
+					m.localVariables = src.localVariables;
+					m.visibleLocalVariableAnnotations = src.visibleLocalVariableAnnotations;
+					m.invisibleLocalVariableAnnotations = src.invisibleLocalVariableAnnotations;
+					m.maxStack = src.maxStack;
+					m.maxLocals = src.maxLocals;
+				}
+			}
+			this.level = level;
+		}
+	}
 	
+	/**
+	 * Discard any changes made to this class, such as by injectors, and parse it again from its original bytes.
+	 * Lazily loaded classes go back to only having their header parsed.
+	 * <p>
+	 * Any hooks referencing the fields or methods of this class will no longer be part of it.
+	 */
+	public synchronized void revert() {
+		if (bytes == null) return;
+		ClassNode parsed = new ClassNode(Opcodes.ASM5);
+		accept(new ClassReader(bytes), parsed, lazy ? HEADER : FULL);
+		replace(parsed);
+		level = lazy ? HEADER : FULL;
+		injected = 0;
+		modified = false;
+	}
+
+	/**
+	 * Get how many injectors have been run on this class.
+	 * This is used by {@link org.frustra.filament.Injectors Injectors} so that no injector is run on a class twice.
+	 * 
+	 * @return the number of injectors run on this class
+	 */
+	public int getInjected() {
+		return injected;
+	}
+
+	/**
+	 * Set how many injectors have been run on this class.
+	 * 
+	 * @param injected the number of injectors run on this class
+	 * @see #getInjected()
+	 */
+	public void setInjected(int injected) {
+		this.injected = injected;
+	}
+
+	/**
+	 * Check if this class may have been changed since it was loaded, such as by a matching injector.
+	 * Unmodified classes can be defined from their original bytes.
+	 * 
+	 * @return <code>true</code> if this class may have been changed
+	 */
+	public boolean isModified() {
+		return modified || bytes == null;
+	}
+
+	/**
+	 * Mark this class as changed since it was loaded.
+	 * Injectors do this through {@link org.frustra.filament.injection.ClassInjector#prepare(FilamentClassNode) prepare},
+	 * but a class changed anywhere else must be marked here, otherwise the change is not written.
+	 * 
+	 * @param modified <code>true</code> if this class may have been changed
+	 * @see #isModified()
+	 */
+	public void setModified(boolean modified) {
+		this.modified = modified;
+	}
+
 	/**
 	 * Check if this class contains a specific String constant.
 	 * 
@@ -65,6 +346,122 @@ public class FilamentClassNode extends ClassNode {
 		return constants.contains(str);
 	}
 	
+	/**
+	 * Check if this class originally declared a field with a specific description.
+	 * This doesn't require the fields of a lazily loaded class to be parsed, but reads the class again on every call.
+	 * 
+	 * @param desc a field description, such as <code>[B</code>
+	 * @return <code>true</code> if this class declares a field with the specified description
+	 * @see #getShape()
+	 */
+	public boolean containsFieldDesc(String desc) {
+		return getShape().containsFieldDesc(desc);
+	}
+
+	/**
+	 * Check if this class originally declared a method with a specific description.
+	 * This doesn't require the methods of a lazily loaded class to be parsed, but reads the class again on every call.
+	 * 
+	 * @param desc a method description, such as <code>(I)I</code>
+	 * @return <code>true</code> if this class declares a method with the specified description
+	 * @see #getShape()
+	 */
+	public boolean containsMethodDesc(String desc) {
+		return getShape().containsMethodDesc(desc);
+	}
+
+	/**
+	 * Check if any method of this class originally contained an instruction with a specific opcode.
+	 * Opcodes are the same as those of the ASM instruction nodes, so <code>LDC_W</code> is reported as <code>LDC</code>.
+	 * This doesn't require the instructions of a lazily loaded class to be parsed, but reads the class again on every call.
+	 * 
+	 * @param opcode an opcode from {@link Opcodes}
+	 * @return <code>true</code> if this class contains the specified opcode
+	 * @see #getShape()
+	 */
+	public boolean containsOpcode(int opcode) {
+		return getShape().containsOpcode(opcode);
+	}
+
+	/**
+	 * Collect the field and method descriptions and opcodes this class originally contained.
+	 * They are read from the original bytes with a single light pass, or from the class tree if there are no bytes.
+	 * <p>
+	 * The shape isn't kept by this class, so it should be collected once to check several requirements, and dropped afterwards.
+	 * 
+	 * @return the shape of this class
+	 */
+	@SuppressWarnings("unchecked")
+	public Shape getShape() {
+		Shape shape = new Shape();
+		if (bytes != null) {
+			new ClassReader(bytes).accept(new ShapeVisitor(shape), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+		} else {
+			for (FieldNode f : (List<FieldNode>) fields) {
+				shape.fieldDescs.add(f.desc);
+			}
+			for (MethodNode m : (List<MethodNode>) methods) {
+				shape.methodDescs.add(m.desc);
+				for (AbstractInsnNode insn = m.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+					if (insn.getOpcode() >= 0) shape.opcodes.set(insn.getOpcode());
+				}
+			}
+		}
+		return shape;
+	}
+
+	/**
+	 * Get which of filament's injection annotations this class may use, such as {@link OverrideMethod}.
+	 * <p>
+	 * For a class loaded from bytes, the constant pool is checked for the descriptor of each annotation when the class is loaded,
+	 * so no members need to be parsed. A bit may be set for an annotation that is only referenced, but never for one that isn't used.
+	 * 
+	 * @return a combination of {@link #OVERRIDE_METHOD}, {@link #PROXY_METHOD}, and {@link #REPLACE_SUPER_CLASS}, or 0 if the class uses none of them
+	 */
+	@SuppressWarnings("unchecked")
+	public int getFilamentAnnotations() {
+		if (annotations >= 0) return annotations;
+		int found = 0;
+		if (visibleAnnotations != null) {
+			for (AnnotationNode anno : (List<AnnotationNode>) visibleAnnotations) {
+				found |= getFilamentAnnotation(anno.desc);
+			}
+		}
+		for (MethodNode m : (List<MethodNode>) methods) {
+			if (m.visibleAnnotations == null) continue;
+			for (AnnotationNode anno : (List<AnnotationNode>) m.visibleAnnotations) {
+				found |= getFilamentAnnotation(anno.desc);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Get the bit of {@link #getFilamentAnnotations()} for an annotation description.
+	 * 
+	 * @param desc the description of an annotation
+	 * @return the annotation's bit, or 0 if it isn't one of filament's injection annotations
+	 */
+	public static int getFilamentAnnotation(String desc) {
+		for (int i = 0; i < ANNOTATION_DESCS.length; i++) {
+			if (ANNOTATION_DESCS[i].equals(desc)) return 1 << i;
+		}
+		return 0;
+	}
+
+	private static int findAnnotation(byte[] buf, int start, int length) {
+		for (int i = 0; i < ANNOTATION_BYTES.length; i++) {
+			byte[] desc = ANNOTATION_BYTES[i];
+			if (desc.length != length) continue;
+			int j = 0;
+			while (j < length && buf[start + j] == desc[j]) {
+				j++;
+			}
+			if (j == length) return 1 << i;
+		}
+		return 0;
+	}
+
 	/**
 	 * Get a list of String constants contained within this class.
 	 * 
@@ -129,4 +526,132 @@ public class FilamentClassNode extends ClassNode {
 	public String toString() {
 		return this.name.replace('/', '.');
 	}
+
+	/**
+	 * The field and method descriptions and opcodes of a class, as returned by {@link FilamentClassNode#getShape()}.
+	 */
+	public static final class Shape {
+		private final HashSet<String> fieldDescs = new HashSet<String>();
+		private final HashSet<String> methodDescs = new HashSet<String>();
+		private final BitSet opcodes = new BitSet(256);
+
+		private Shape() {}
+
+		/**
+		 * Check if the class declared a field with a specific description.
+		 * 
+		 * @param desc a field description, such as <code>[B</code>
+		 * @return <code>true</code> if the class declares a field with the specified description
+		 */
+		public boolean containsFieldDesc(String desc) {
+			return fieldDescs.contains(desc);
+		}
+
+		/**
+		 * Check if the class declared a method with a specific description.
+		 * 
+		 * @param desc a method description, such as <code>(I)I</code>
+		 * @return <code>true</code> if the class declares a method with the specified description
+		 */
+		public boolean containsMethodDesc(String desc) {
+			return methodDescs.contains(desc);
+		}
+
+		/**
+		 * Check if any method of the class contained an instruction with a specific opcode.
+		 * 
+		 * @param opcode an opcode from {@link Opcodes}
+		 * @return <code>true</code> if the class contains the specified opcode
+		 */
+		public boolean containsOpcode(int opcode) {
+			return opcode >= 0 && opcodes.get(opcode);
+		}
+	}
+
+	private static final class ShapeVisitor extends ClassVisitor {
+		private final Shape shape;
+		private final MethodVisitor code;
+
+		private ShapeVisitor(final Shape shape) {
+			super(Opcodes.ASM5);
+			this.shape = shape;
+			this.code = new MethodVisitor(Opcodes.ASM5) {
+				public void visitInsn(int opcode) {
+					shape.opcodes.set(opcode);
+				}
+
+				public void visitIntInsn(int opcode, int operand) {
+					shape.opcodes.set(opcode);
+				}
+
+				public void visitVarInsn(int opcode, int var) {
+					shape.opcodes.set(opcode);
+				}
+
+				public void visitTypeInsn(int opcode, String type) {
+					shape.opcodes.set(opcode);
+				}
+
+				public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+					shape.opcodes.set(opcode);
+				}
+
+				public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+					shape.opcodes.set(opcode);
+				}
+
+				public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+					shape.opcodes.set(Opcodes.INVOKEDYNAMIC);
+				}
+
+				public void visitJumpInsn(int opcode, Label label) {
+					shape.opcodes.set(opcode);
+				}
+
+				public void visitLdcInsn(Object cst) {
+					shape.opcodes.set(Opcodes.LDC);
+				}
+
+				public void visitIincInsn(int var, int increment) {
+					shape.opcodes.set(Opcodes.IINC);
+				}
+
+				public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+					shape.opcodes.set(Opcodes.TABLESWITCH);
+				}
+
+				public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+					shape.opcodes.set(Opcodes.LOOKUPSWITCH);
+				}
+
+				public void visitMultiANewArrayInsn(String desc, int dims) {
+					shape.opcodes.set(Opcodes.MULTIANEWARRAY);
+				}
+			};
+		}
+
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			shape.fieldDescs.add(desc);
+			return null;
+		}
+
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+			shape.methodDescs.add(desc);
+			return code;
+		}
+	}
+
+	private static final class HeaderVisitor extends ClassVisitor {
+		private HeaderVisitor(ClassVisitor cv) {
+			super(Opcodes.ASM5, cv);
+		}
+
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			return null;
+		}
+
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+			return null;
+		}
+	}
 }
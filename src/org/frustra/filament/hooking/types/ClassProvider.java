@@ -18,17 +18,28 @@ public abstract class ClassProvider extends HookProvider {
 		try {
 			if (match(node)) {
 				if (ClassProvider.class.equals(this.getClass().getSuperclass())) {
-					cNode = node;
-					matches++;
+					synchronized (this) {
+						cNode = node;
+						matches++;
+					}
 				}
 				return true;
 			} else return false;
 		} catch (Throwable e) {
-			error = e;
+			fail(node, e);
 			return false;
 		}
 	}
 
+	/**
+	 * Get the class this provider matched during the last hooking pass.
+	 * 
+	 * @return the matched class, or <code>null</code> if nothing was matched
+	 */
+	public FilamentClassNode getMatchedClass() {
+		return cNode;
+	}
+
 	public void complete() throws BadHookException {
 		complete(cNode);
 	}
@@ -23,14 +23,16 @@ public abstract class ConstantProvider extends ClassProvider {
 		try {
 			if (match(node, constant)) {
 				if (ConstantProvider.class.equals(getClass().getSuperclass())) {
-					cNode = node;
-					cConstant = constant;
-					matches++;
+					synchronized (this) {
+						cNode = node;
+						cConstant = constant;
+						matches++;
+					}
 				}
 				return true;
 			} else return false;
 		} catch (Throwable e) {
-			error = e;
+			fail(node, e);
 			return false;
 		}
 	}
@@ -24,14 +24,16 @@ public abstract class FieldProvider extends ClassProvider {
 		try {
 			if (match(node, f)) {
 				if (FieldProvider.class.equals(getClass().getSuperclass())) {
-					cNode = node;
-					cField = f;
-					matches++;
+					synchronized (this) {
+						cNode = node;
+						cField = f;
+						matches++;
+					}
 				}
 				return true;
 			} else return false;
 		} catch (Throwable e) {
-			error = e;
+			fail(node, e);
 			return false;
 		}
 	}
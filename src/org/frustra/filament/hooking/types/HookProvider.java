@@ -1,10 +1,12 @@
 package org.frustra.filament.hooking.types;
 
 import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
 
 public abstract class HookProvider {
 	protected int matches = 0;
 	protected Throwable error = null;
+	private String errorClass = null;
 
 	protected abstract void complete() throws BadHookException;
 	
@@ -27,6 +29,41 @@ public abstract class HookProvider {
 	public void reset() {
 		matches = 0;
 		error = null;
+		errorClass = null;
+	}
+
+	/**
+	 * Record an error thrown by one of this provider's matchers.
+	 * If several classes cause errors, the error from the class with the lowest name is kept,
+	 * so the result is the same no matter what order or how many threads classes are matched on.
+	 * 
+	 * @param node the class being matched
+	 * @param e the error that was thrown
+	 */
+	protected synchronized void fail(FilamentClassNode node, Throwable e) {
+		String name = node == null || node.name == null ? "" : node.name;
+		if (error == null || name.compareTo(errorClass) < 0) {
+			error = e;
+			errorClass = name;
+		}
+	}
+
+	/**
+	 * Get the number of matches found since this provider was last reset.
+	 * 
+	 * @return the number of matches
+	 */
+	public int getMatchCount() {
+		return matches;
+	}
+
+	/**
+	 * Get the error thrown by one of this provider's matchers since it was last reset.
+	 * 
+	 * @return the error, or <code>null</code> if no matcher failed
+	 */
+	public Throwable getError() {
+		return error;
 	}
 
 	public String toString() {
@@ -0,0 +1,223 @@
+package org.frustra.filament.hooking.types;
+
+import java.util.ArrayList;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+/**
+ * InsnPattern describes a short sequence of instructions to search for in a method, used by a {@link PatternProvider}.
+ * <p>
+ * A pattern is built by chaining the methods below, one call per instruction:<blockquote>
+ * 
+ * <pre>
+ * new InsnPattern().opcode(Opcodes.ALOAD).any().gap(3).method(Opcodes.INVOKEVIRTUAL, null, "toString", "()Ljava/lang/String;").capture()
+ * </pre>
+ * 
+ * </blockquote>Only real instructions are matched; labels, line numbers, and frames are ignored.
+ * Any owner, name, description, or constant given as <code>null</code> matches anything.
+ * Each call to {@link #capture()} adds the instruction matched by the previous element to the captures passed to the provider.
+ * 
+ * @see PatternProvider
+ */
+public final class InsnPattern {
+	private final ArrayList<Element> elements = new ArrayList<Element>();
+	private int captures = 0;
+
+	/**
+	 * Match one instruction with the specified opcode.
+	 * 
+	 * @param opcode an opcode from {@link org.objectweb.asm.Opcodes Opcodes}
+	 * @return this pattern
+	 */
+	public InsnPattern opcode(int opcode) {
+		return add(new Element(opcode, null, null, null, null));
+	}
+
+	/**
+	 * Match one instruction with any opcode.
+	 * 
+	 * @return this pattern
+	 */
+	public InsnPattern any() {
+		return add(new Element(-1, null, null, null, null));
+	}
+
+	/**
+	 * Match any number of instructions, as few as possible.
+	 * A pattern can't start with a gap.
+	 * 
+	 * @return this pattern
+	 */
+	public InsnPattern gap() {
+		return gap(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Match up to the specified number of instructions, as few as possible.
+	 * A pattern can't start with a gap.
+	 * 
+	 * @param max the maximum number of instructions to skip
+	 * @return this pattern
+	 */
+	public InsnPattern gap(int max) {
+		if (elements.isEmpty()) throw new IllegalStateException("A pattern can't start with a gap");
+		Element gap = new Element(-1, null, null, null, null);
+		gap.gap = Math.max(0, max);
+		return add(gap);
+	}
+
+	/**
+	 * Match one field instruction.
+	 * 
+	 * @param opcode one of <code>GETFIELD</code>, <code>PUTFIELD</code>, <code>GETSTATIC</code>, or <code>PUTSTATIC</code>
+	 * @param owner the internal name of the field's owner
+	 * @param name the name of the field
+	 * @param desc the description of the field
+	 * @return this pattern
+	 */
+	public InsnPattern field(int opcode, String owner, String name, String desc) {
+		return add(new Element(opcode, owner, name, desc, null));
+	}
+
+	/**
+	 * Match one method instruction.
+	 * 
+	 * @param opcode one of <code>INVOKEVIRTUAL</code>, <code>INVOKESPECIAL</code>, <code>INVOKESTATIC</code>, or <code>INVOKEINTERFACE</code>
+	 * @param owner the internal name of the method's owner
+	 * @param name the name of the method
+	 * @param desc the description of the method
+	 * @return this pattern
+	 */
+	public InsnPattern method(int opcode, String owner, String name, String desc) {
+		return add(new Element(opcode, owner, name, desc, null));
+	}
+
+	/**
+	 * Match one type instruction.
+	 * 
+	 * @param opcode one of <code>NEW</code>, <code>ANEWARRAY</code>, <code>CHECKCAST</code>, or <code>INSTANCEOF</code>
+	 * @param type the internal name of the type
+	 * @return this pattern
+	 */
+	public InsnPattern type(int opcode, String type) {
+		return add(new Element(opcode, null, null, type, null));
+	}
+
+	/**
+	 * Match one <code>LDC</code> instruction.
+	 * 
+	 * @param constant the loaded constant, such as a String or Integer
+	 * @return this pattern
+	 */
+	public InsnPattern ldc(Object constant) {
+		return add(new Element(org.objectweb.asm.Opcodes.LDC, null, null, null, constant));
+	}
+
+	/**
+	 * Capture the instruction matched by the previous element.
+	 * Gaps can't be captured.
+	 * 
+	 * @return this pattern
+	 */
+	public InsnPattern capture() {
+		if (elements.isEmpty()) throw new IllegalStateException("Nothing to capture");
+		Element last = elements.get(elements.size() - 1);
+		if (last.gap >= 0) throw new IllegalStateException("A gap can't be captured");
+		if (last.capture < 0) last.capture = captures++;
+		return this;
+	}
+
+	/**
+	 * Get the opcode the first instruction of a match must have.
+	 * 
+	 * @return an opcode, or -1 if the first instruction can have any opcode
+	 */
+	public int getFirstOpcode() {
+		return elements.isEmpty() ? -1 : elements.get(0).opcode;
+	}
+
+	/**
+	 * Get the number of instructions captured by each match.
+	 * 
+	 * @return the size of the captures array
+	 */
+	public int getCaptureCount() {
+		return captures;
+	}
+
+	/**
+	 * Check if this pattern matches the instructions starting at a specified position.
+	 * 
+	 * @param insns an array of real instructions
+	 * @param start the position of the first instruction to match
+	 * @param count the number of instructions in the array
+	 * @param captures an array of at least {@link #getCaptureCount()} elements, filled with the captured instructions
+	 * @return <code>true</code> if the pattern matched
+	 */
+	public boolean matches(AbstractInsnNode[] insns, int start, int count, AbstractInsnNode[] captures) {
+		if (elements.isEmpty()) return false;
+		return matches(insns, start, count, 0, captures);
+	}
+
+	private boolean matches(AbstractInsnNode[] insns, int pos, int count, int index, AbstractInsnNode[] captures) {
+		for (; index < elements.size(); index++) {
+			Element element = elements.get(index);
+			if (element.gap >= 0) {
+				int last = (int) Math.min((long) pos + element.gap, count);
+				for (int p = pos; p <= last; p++) {
+					if (matches(insns, p, count, index + 1, captures)) return true;
+				}
+				return false;
+			}
+			if (pos >= count || !element.accepts(insns[pos])) return false;
+			if (element.capture >= 0) captures[element.capture] = insns[pos];
+			pos++;
+		}
+		return true;
+	}
+
+	private InsnPattern add(Element element) {
+		elements.add(element);
+		return this;
+	}
+
+	private static final class Element {
+		private final int opcode;
+		private final String owner, name, desc;
+		private final Object constant;
+		private int gap = -1;
+		private int capture = -1;
+
+		private Element(int opcode, String owner, String name, String desc, Object constant) {
+			this.opcode = opcode;
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+			this.constant = constant;
+		}
+
+		private boolean accepts(AbstractInsnNode insn) {
+			if (opcode >= 0 && insn.getOpcode() != opcode) return false;
+			if (insn instanceof MethodInsnNode) {
+				MethodInsnNode m = (MethodInsnNode) insn;
+				return equal(owner, m.owner) && equal(name, m.name) && equal(desc, m.desc);
+			} else if (insn instanceof FieldInsnNode) {
+				FieldInsnNode f = (FieldInsnNode) insn;
+				return equal(owner, f.owner) && equal(name, f.name) && equal(desc, f.desc);
+			} else if (insn instanceof TypeInsnNode) {
+				return equal(desc, ((TypeInsnNode) insn).desc);
+			} else if (insn instanceof LdcInsnNode) {
+				return constant == null || constant.equals(((LdcInsnNode) insn).cst);
+			}
+			return true;
+		}
+
+		private static boolean equal(String expected, String actual) {
+			return expected == null || expected.equals(actual);
+		}
+	}
+}
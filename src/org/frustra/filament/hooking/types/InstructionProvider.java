@@ -30,15 +30,17 @@ public abstract class InstructionProvider extends MethodProvider {
 		try {
 			if (match(node, m, insn)) {
 				if (InstructionProvider.class.equals(getClass().getSuperclass())) {
-					cNode = node;
-					cMethod = m;
-					cInsn = insn;
-					matches++;
+					synchronized (this) {
+						cNode = node;
+						cMethod = m;
+						cInsn = insn;
+						matches++;
+					}
 				}
 				return true;
 			} else return false;
 		} catch (Throwable e) {
-			error = e;
+			fail(node, e);
 			return false;
 		}
 	}
@@ -0,0 +1,16 @@
+package org.frustra.filament.hooking.types;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Only call {@link ConstantProvider#match(org.frustra.filament.hooking.FilamentClassNode, String) match} for constants containing one of the listed Strings.
+ * The needles of every provider in a hooking pass are searched for together in a single scan of each constant.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MatchConstantSubstring {
+	String[] value();
+}
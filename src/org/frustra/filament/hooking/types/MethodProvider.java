@@ -24,14 +24,16 @@ public abstract class MethodProvider extends ClassProvider {
 		try {
 			if (match(node, m)) {
 				if (MethodProvider.class.equals(getClass().getSuperclass())) {
-					cNode = node;
-					cMethod = m;
-					matches++;
+					synchronized (this) {
+						cNode = node;
+						cMethod = m;
+						matches++;
+					}
 				}
 				return true;
 			} else return false;
 		} catch (Throwable e) {
-			error = e;
+			fail(node, e);
 			return false;
 		}
 	}
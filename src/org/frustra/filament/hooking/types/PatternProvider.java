@@ -0,0 +1,77 @@
+package org.frustra.filament.hooking.types;
+
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * PatternProvider is a hook provider that matches a sequence of instructions described by an {@link InsnPattern}.
+ * <p>
+ * The patterns of every PatternProvider in a hooking pass are searched for together in a single walk over each matching method,
+ * and the instructions captured by a match are passed to <code>match</code> and <code>complete</code>.
+ * The pattern is requested once per hooking pass, so it may use hooks set by an earlier pass.
+ * <p>
+ * The array of captures passed to <code>match</code> is reused for the next match if <code>match</code> returns <code>false</code>,
+ * so it should only be kept by a provider accepting the match.
+ * 
+ * @see InsnPattern
+ */
+public abstract class PatternProvider extends MethodProvider {
+	protected AbstractInsnNode[] cCaptures = null;
+
+	public boolean match(FilamentClassNode node) throws BadHookException {
+		return true;
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m) throws BadHookException {
+		return true;
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m, AbstractInsnNode[] captures) throws BadHookException {
+		return true;
+	}
+
+	public abstract InsnPattern getPattern() throws BadHookException;
+	protected void complete(FilamentClassNode node) throws BadHookException {}
+	protected void complete(FilamentClassNode node, MethodNode m) throws BadHookException {}
+	protected abstract void complete(FilamentClassNode node, MethodNode m, AbstractInsnNode[] captures) throws BadHookException;
+
+	public void reset() {
+		super.reset();
+		cCaptures = null;
+	}
+
+	public InsnPattern doGetPattern() {
+		try {
+			return getPattern();
+		} catch (Throwable e) {
+			fail(null, e);
+			return null;
+		}
+	}
+
+	public boolean doMatch(FilamentClassNode node, MethodNode m, AbstractInsnNode[] captures) {
+		try {
+			if (match(node, m, captures)) {
+				if (PatternProvider.class.equals(getClass().getSuperclass())) {
+					synchronized (this) {
+						cNode = node;
+						cMethod = m;
+						cCaptures = captures;
+						matches++;
+					}
+				}
+				return true;
+			} else return false;
+		} catch (Throwable e) {
+			fail(node, e);
+			return false;
+		}
+	}
+
+	public void complete() throws BadHookException {
+		super.complete();
+		complete(cNode, cMethod, cCaptures);
+	}
+}
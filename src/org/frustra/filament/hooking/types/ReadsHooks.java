@@ -0,0 +1,19 @@
+package org.frustra.filament.hooking.types;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declare the hooks read by a hook provider's matchers.
+ * A provider declaring the hooks it reads is only scheduled after the providers writing them,
+ * instead of after every provider in an earlier {@link HookingPass}.
+ * 
+ * @see WritesHooks
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ReadsHooks {
+	String[] value();
+}
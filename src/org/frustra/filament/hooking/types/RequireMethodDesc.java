@@ -0,0 +1,16 @@
+package org.frustra.filament.hooking.types;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Only match classes declaring a method with each listed description, such as <code>(I)I</code>.
+ * Classes without them are skipped before {@link ClassProvider#match(org.frustra.filament.hooking.FilamentClassNode) match} is called.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface RequireMethodDesc {
+	String[] value();
+}
@@ -0,0 +1,16 @@
+package org.frustra.filament.hooking.types;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Only match classes containing an instruction with each listed opcode from {@link org.objectweb.asm.Opcodes Opcodes}.
+ * Classes without them are skipped before {@link ClassProvider#match(org.frustra.filament.hooking.FilamentClassNode) match} is called.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface RequireOpcode {
+	int[] value();
+}
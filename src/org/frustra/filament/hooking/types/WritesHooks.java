@@ -0,0 +1,18 @@
+package org.frustra.filament.hooking.types;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declare the hooks set by a hook provider.
+ * Providers reading any other hooks don't need to wait for this one.
+ * 
+ * @see ReadsHooks
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface WritesHooks {
+	String[] value();
+}
@@ -4,53 +4,55 @@ import java.util.List;
 
 import org.frustra.filament.Hooks;
 import org.frustra.filament.hooking.FilamentClassNode;
-import org.frustra.filament.injection.annotations.AnnotationHelper;
 import org.frustra.filament.injection.annotations.OverrideMethod;
-import org.frustra.filament.injection.annotations.ProxyMethod;
-import org.frustra.filament.injection.annotations.ReplaceSuperClass;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
+/**
+ * AnnotationInjector applies filament's injection annotations, such as {@link OverrideMethod}, to the classes using them.
+ * <p>
+ * Classes are matched by {@link FilamentClassNode#getFilamentAnnotations()}, which is found when each class is loaded,
+ * so classes that don't use any of the annotations are skipped without looking at their members.
+ */
 public final class AnnotationInjector extends ClassInjector {
-	@SuppressWarnings("unchecked")
 	protected boolean match(FilamentClassNode node) {
-		if (node.visibleAnnotations != null && node.visibleAnnotations.size() > 0) return true;
-		for (MethodNode m : (List<MethodNode>) node.methods) {
-			if (m.visibleAnnotations != null && m.visibleAnnotations.size() > 0) return true;
-		}
-		return false;
+		return node.getFilamentAnnotations() != 0;
 	}
 
 	@SuppressWarnings("unchecked")
 	protected void inject(FilamentClassNode node) {
 		for (MethodNode m : (List<MethodNode>) node.methods) {
-			AnnotationHelper[] annos = AnnotationHelper.getAnnotations(m);
-			for (AnnotationHelper anno : annos) {
+			if (m.visibleAnnotations == null) continue;
+			for (AnnotationNode anno : (List<AnnotationNode>) m.visibleAnnotations) {
+				int kind = FilamentClassNode.getFilamentAnnotation(anno.desc);
+				if (kind == 0) continue;
+				String value = getValue(anno);
 				try {
-					if (anno.matches(ReplaceSuperClass.class)) {
+					if (kind == FilamentClassNode.REPLACE_SUPER_CLASS) {
 						AbstractInsnNode insn = m.instructions.getFirst();
 						while (insn != null) {
 							if (insn.getOpcode() == Opcodes.INVOKESPECIAL) {
 								MethodInsnNode minsn = (MethodInsnNode) insn;
 								if (minsn.owner.equals(node.superName)) {
-									minsn.owner = Hooks.getClassName(anno.getValue());
+									minsn.owner = Hooks.getClassName(value);
 								}
 							}
 							insn = insn.getNext();
 						}
-					} else if (anno.matches(OverrideMethod.class)) {
-						MethodNode parent = Hooks.getMethod(anno.getValue());
+					} else if (kind == FilamentClassNode.OVERRIDE_METHOD) {
+						MethodNode parent = Hooks.getMethod(value);
 						m.access = parent.access & ~Opcodes.ACC_ABSTRACT;
 						m.name = parent.name;
 						m.desc = parent.desc;
-					} else if (anno.matches(ProxyMethod.class)) {
-						String hook = anno.getValue();
+					} else if (kind == FilamentClassNode.PROXY_METHOD) {
+						String hook = value;
 						FilamentClassNode targetNode = Hooks.getClass(hook.substring(0, hook.lastIndexOf('.')));
 						MethodNode targetMethod = Hooks.getMethod(hook);
 
@@ -88,21 +90,29 @@ public final class AnnotationInjector extends ClassInjector {
 						m.instructions.add(new InsnNode(ret.getOpcode(Opcodes.IRETURN)));
 					}
 				} catch (Exception e) {
-					System.err.println("Exception on annotation: " + anno.annotation + " : " + node.name + "." + m.name + m.desc + " : " + anno.getValue());
+					System.err.println("Exception on annotation: " + Type.getType(anno.desc).getClassName() + " : " + node.name + "." + m.name + m.desc + " : " + value);
 					e.printStackTrace();
 				}
 			}
 		}
-		AnnotationHelper[] annos = AnnotationHelper.getAnnotations(node);
-		for (AnnotationHelper anno : annos) {
+		if ((node.getFilamentAnnotations() & FilamentClassNode.REPLACE_SUPER_CLASS) == 0 || node.visibleAnnotations == null) return;
+		for (AnnotationNode anno : (List<AnnotationNode>) node.visibleAnnotations) {
+			if (FilamentClassNode.getFilamentAnnotation(anno.desc) != FilamentClassNode.REPLACE_SUPER_CLASS) continue;
+			String value = getValue(anno);
 			try {
-				if (anno.annotation.equals(ReplaceSuperClass.class.getName())) {
-					node.superName = Hooks.getClassName(anno.getValue());
-				}
+				node.superName = Hooks.getClassName(value);
 			} catch (Exception e) {
-				System.err.println("Exception on annotation: " + anno.annotation + " : " + node.name + " : " + anno.getValue());
+				System.err.println("Exception on annotation: " + Type.getType(anno.desc).getClassName() + " : " + node.name + " : " + value);
 				e.printStackTrace();
 			}
 		}
 	}
+
+	private static String getValue(AnnotationNode anno) {
+		if (anno.values == null) return null;
+		for (int i = 0; i < anno.values.size(); i += 2) {
+			if ("value".equals(anno.values.get(i))) return (String) anno.values.get(i + 1);
+		}
+		return null;
+	}
 }
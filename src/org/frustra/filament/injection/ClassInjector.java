@@ -14,9 +14,24 @@ public abstract class ClassInjector {
 			return;
 		}
 		try {
+			prepare(node);
 			inject(node);
 		} catch (BadHookException e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Prepare a class to be changed by this injector.
+	 * A lazily loaded class is fully parsed, and the class is marked as modified so it is written from its tree instead of its original bytes.
+	 * <p>
+	 * This is called before {@link #inject(FilamentClassNode)}. An injector overriding {@link #doInject(FilamentClassNode)} should call it before changing a class,
+	 * otherwise every class it is run on is fully parsed and marked as modified.
+	 * 
+	 * @param node the class about to be changed
+	 */
+	protected final void prepare(FilamentClassNode node) {
+		node.expand(FilamentClassNode.FULL);
+		node.setModified(true);
+	}
 }
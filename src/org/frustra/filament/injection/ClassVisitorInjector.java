@@ -0,0 +1,44 @@
+package org.frustra.filament.injection;
+
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * ClassVisitorInjector is an injector that modifies classes as they are written, as a stage in a chain of ASM {@link ClassVisitor} objects.
+ * Unlike a {@link ClassInjector}, it never requires the class tree to be built,
+ * so simple rewrites such as changing method owners or super classes can be done in a single streaming pass.
+ * <p>
+ * The {@link FilamentClassNode} passed to each method is only guaranteed to have its header, constants, and references parsed.
+ * Hooks can be used in the same way as in a {@link ClassInjector}.
+ *
+ * @see ClassInjector
+ */
+public abstract class ClassVisitorInjector {
+	protected abstract boolean match(FilamentClassNode node) throws BadHookException;
+
+	/**
+	 * Create the visitor stage used to inject a class.
+	 *
+	 * @param node the class being injected
+	 * @param next the visitor that the returned stage should forward events to
+	 * @return a visitor that forwards modified events to next
+	 * @throws BadHookException if a referenced hook is undefined
+	 */
+	protected abstract ClassVisitor inject(FilamentClassNode node, ClassVisitor next) throws BadHookException;
+
+	public ClassVisitor doInject(FilamentClassNode node, ClassVisitor next) {
+		try {
+			if (!match(node)) return next;
+		} catch (BadHookException e1) {
+			return next;
+		}
+		try {
+			ClassVisitor cv = inject(node, next);
+			if (cv != null) return cv;
+		} catch (BadHookException e) {
+			e.printStackTrace();
+		}
+		return next;
+	}
+}
@@ -0,0 +1,21 @@
+package org.frustra.filament.injection;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Only offer the injector the classes bound to any of the listed class hooks.
+ * Other classes are skipped before the match method of the {@link ClassInjector} or {@link ClassVisitorInjector} is called.
+ * <p>
+ * An injector declaring several targets is offered every class meeting any of them.
+ *
+ * @see InjectTargetName
+ * @see InjectTargetAnnotation
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface InjectTargetHook {
+	String[] value();
+}
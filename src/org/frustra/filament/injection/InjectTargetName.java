@@ -0,0 +1,23 @@
+package org.frustra.filament.injection;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Only offer the injector the classes whose name matches any of the listed patterns.
+ * Other classes are skipped before the match method of the {@link ClassInjector} or {@link ClassVisitorInjector} is called.
+ * <p>
+ * Patterns are class names such as <code>com.example.Main</code>, where <code>*</code> matches any part of a single package or class name
+ * and <code>**</code> matches any number of packages, such as <code>com.example.**</code>.
+ * An injector declaring several targets is offered every class meeting any of them.
+ *
+ * @see InjectTargetHook
+ * @see InjectTargetAnnotation
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface InjectTargetName {
+	String[] value();
+}
@@ -0,0 +1,80 @@
+package org.frustra.filament;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Re-hooks after the loaded classes change, and checks that incremental re-hooking resolves exactly the same hooks as hooking from scratch.
+ */
+public class IncrementalHookingTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void reset() {
+		// Every FilamentClassLoader creates the global Filament instance, so the one left by an earlier test is dropped
+		Filament.filament = null;
+		Hooks.setIncremental(true);
+	}
+
+	@After
+	public void disable() {
+		Hooks.setIncremental(false);
+	}
+
+	@Test
+	public void rehookAfterChangingClassesMatchesFullHooking() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		// One generated class gets a different super class, and another one is added
+		LinkedHashMap<String, byte[]> changes = new LinkedHashMap<String, byte[]>();
+		changes.put("org/frustra/filament/generated/Corpus0", TestJars.generate("org/frustra/filament/generated/Corpus0", "java/lang/Thread"));
+		changes.put("org/frustra/filament/generated/Added", TestJars.generate("org/frustra/filament/generated/Added", "java/lang/Object"));
+		File changed = TestJars.write(folder.newFile("changed.jar"), changes);
+
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.loadJar(corpus);
+		Hooks.load(ParallelHookingTest.HOOKS);
+		assertNotNull("The hooking run wasn't remembered", Hooks.getHistory());
+		loader.loadJar(changed);
+		Hooks.rehook();
+		String[] incremental = Hooks.describeHooks();
+		assertArrayEquals(ParallelHookingTest.expected(), incremental);
+		assertArrayEquals(full(corpus, changed), incremental);
+	}
+
+	@Test
+	public void rehookWithoutChangesMatchesFullHooking() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.loadJar(corpus);
+		Hooks.load(ParallelHookingTest.HOOKS);
+		assertNotNull("The hooking run wasn't remembered", Hooks.getHistory());
+		Hooks.rehook();
+		String[] incremental = Hooks.describeHooks();
+		assertArrayEquals(ParallelHookingTest.expected(), incremental);
+		assertArrayEquals(full(corpus), incremental);
+	}
+
+	/**
+	 * Hook a new Filament instance from scratch, without incremental re-hooking.
+	 */
+	private static String[] full(File... jars) throws Exception {
+		Hooks.setIncremental(false);
+		Filament.filament = null;
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		for (File jar : jars) {
+			loader.loadJar(jar);
+		}
+		Hooks.load(ParallelHookingTest.HOOKS);
+		return Hooks.describeHooks();
+	}
+}
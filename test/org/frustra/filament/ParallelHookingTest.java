@@ -0,0 +1,58 @@
+package org.frustra.filament;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Resolves the same hooks on one and on several threads, and checks that both resolve exactly the same hooks.
+ */
+public class ParallelHookingTest {
+	static final String HOOKS = "org.frustra.filament.fixture.hooking";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void reset() {
+		// Every FilamentClassLoader creates the global Filament instance, so the one left by an earlier test is dropped
+		Filament.filament = null;
+	}
+
+	@Test
+	public void parallelHookingMatchesSequential() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		String[] sequential = hook(corpus, 1);
+		assertArrayEquals(expected(), sequential);
+		assertArrayEquals(sequential, hook(corpus, 4));
+	}
+
+	/**
+	 * Get the hooks the fixture providers resolve against the corpus, as described by {@link Hooks#describeHooks()}.
+	 */
+	static String[] expected() {
+		return new String[] {
+			"Reader = org/objectweb/asm/ClassReader",
+			"Reader.buffer = b",
+			"Reader.error = Class not found",
+			"Reader.readInt = readInt(I)I",
+			"Reader.readShort = readShort(I)S",
+			"Reader.shift = 24",
+			"Tree = org/objectweb/asm/tree/ClassNode",
+		};
+	}
+
+	private static String[] hook(File jar, int threads) throws Exception {
+		Filament.filament = null;
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.setParallelism(threads);
+		loader.loadJar(jar);
+		Hooks.load(HOOKS);
+		return Hooks.describeHooks();
+	}
+}
@@ -0,0 +1,112 @@
+package org.frustra.filament;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Loads the same classes from many threads at once, to check that {@link FilamentClassLoader} defines each class exactly once.
+ */
+public class ParallelLoadingTest {
+	private static final int CLASSES = 2000;
+	private static final int CHAIN = 10;
+	private static final int THREADS = 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void reset() {
+		// Every FilamentClassLoader creates the global Filament instance, so the one left by an earlier test is dropped
+		Filament.filament = null;
+	}
+
+	@Test
+	public void definesEachClassOnce() throws Exception {
+		// Each class extends the one before it in a short chain, so defining a class also loads its super classes
+		LinkedHashMap<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		for (int i = 0; i < CLASSES; i++) {
+			classes.put(name(i), TestJars.generate(name(i), i % CHAIN == 0 ? "java/lang/Object" : name(i - 1)));
+		}
+		final CountingClassLoader loader = new CountingClassLoader();
+		loader.setParallelism(4);
+		loader.loadJar(TestJars.write(folder.newFile("classes.jar"), classes));
+
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+		final Class<?>[][] loaded = new Class<?>[THREADS][CLASSES];
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					List<Integer> order = new ArrayList<Integer>();
+					for (int i = 0; i < CLASSES; i++) {
+						order.add(i);
+					}
+					Collections.shuffle(order, new Random(thread));
+					try {
+						start.await();
+						for (int i : order) {
+							loaded[thread][i] = loader.loadClass(name(i).replace('/', '.'));
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue("Loading failed: " + errors, errors.isEmpty());
+		assertEquals(CLASSES, loader.defined.size());
+		for (int i = 0; i < CLASSES; i++) {
+			String name = name(i).replace('/', '.');
+			assertEquals(name, 1, loader.defined.get(name).get());
+			assertEquals(name, loaded[0][i].getName());
+			for (int t = 1; t < THREADS; t++) {
+				assertSame(name, loaded[0][i], loaded[t][i]);
+			}
+		}
+	}
+
+	private static String name(int i) {
+		return "org/frustra/filament/generated/Class" + i;
+	}
+
+	private static final class CountingClassLoader extends FilamentClassLoader {
+		static {
+			ClassLoader.registerAsParallelCapable();
+		}
+
+		private final ConcurrentHashMap<String, AtomicInteger> defined = new ConcurrentHashMap<String, AtomicInteger>();
+
+		private CountingClassLoader() {
+			super(false);
+		}
+
+		protected Class<?> defineClass(String name, byte[] buf) {
+			AtomicInteger count = defined.putIfAbsent(name, new AtomicInteger(1));
+			if (count != null) count.incrementAndGet();
+			return super.defineClass(name, buf);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.frustra.filament;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Loads the same jar on one and on several threads, and checks that both load exactly the same classes.
+ */
+public class ParallelParsingTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void reset() {
+		// Every FilamentClassLoader creates the global Filament instance, so the one left by an earlier test is dropped
+		Filament.filament = null;
+	}
+
+	@Test
+	public void parallelParsingMatchesSequential() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		TreeMap<String, List<String>> sequential = load(corpus, 1, false);
+		assertEquals(sequential, load(corpus, 4, false));
+	}
+
+	@Test
+	public void parallelLazyParsingMatchesSequential() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		TreeMap<String, List<String>> sequential = load(corpus, 1, true);
+		assertEquals(sequential, load(corpus, 4, true));
+	}
+
+	/**
+	 * Load a jar into a new Filament instance and describe every loaded class.
+	 */
+	private static TreeMap<String, List<String>> load(File jar, int threads, boolean lazy) throws Exception {
+		Filament.filament = null;
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.setParallelism(threads);
+		loader.setLazyLoading(lazy);
+		loader.loadJar(jar);
+		assertEquals(TestJars.GENERATED, count(Filament.filament.classes.keySet(), "org.frustra.filament.generated."));
+		TreeMap<String, List<String>> classes = new TreeMap<String, List<String>>();
+		for (FilamentClassNode node : Filament.filament.classes.values()) {
+			classes.put(node.name, describe(node));
+		}
+		return classes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> describe(FilamentClassNode node) {
+		node.expand(FilamentClassNode.FULL);
+		List<String> lines = new ArrayList<String>();
+		lines.add(node.access + " " + node.superName + " " + node.interfaces);
+		for (FieldNode f : (List<FieldNode>) node.fields) {
+			lines.add(f.access + " " + f.name + " " + f.desc + " " + f.value);
+		}
+		for (MethodNode m : (List<MethodNode>) node.methods) {
+			lines.add(m.access + " " + m.name + m.desc + " " + m.instructions.size());
+		}
+		lines.add(node.getConstants().toString());
+		return lines;
+	}
+
+	private static int count(Collection<String> names, String prefix) {
+		int count = 0;
+		for (String name : names) {
+			if (name.startsWith(prefix)) count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,88 @@
+package org.frustra.filament;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.frustra.filament.fixture.injection.MarkerInjector;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+
+/**
+ * Transforms the same classes ahead of time and on demand, and checks that both produce exactly the same bytes.
+ */
+public class PrecomputeTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void reset() {
+		// Every FilamentClassLoader creates the global Filament instance, so the one left by an earlier test is dropped
+		Filament.filament = null;
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void precomputedBytesMatchOnDemand() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		FilamentClassLoader loader = load(corpus, 1);
+		TreeMap<String, byte[]> onDemand = getClassBytes(loader);
+		assertEquals(0, loader.getClassBytesHits());
+
+		// Only the classes of the ASM tree API are injected
+		int injected = 0;
+		for (String name : onDemand.keySet()) {
+			ClassNode node = new ClassNode();
+			new ClassReader(onDemand.get(name)).accept(node, ClassReader.SKIP_CODE);
+			boolean changed = false;
+			for (FieldNode f : (List<FieldNode>) node.fields) {
+				if (f.name.equals("injected")) changed = true;
+			}
+			assertEquals(name, name.startsWith("org.objectweb.asm.tree."), changed);
+			if (changed) injected++;
+		}
+		assertTrue("No class was injected", injected > 0);
+
+		for (int threads : new int[] { 1, 4 }) {
+			loader = load(corpus, threads);
+			loader.precompute();
+			long misses = loader.getClassBytesMisses();
+			TreeMap<String, byte[]> precomputed = getClassBytes(loader);
+			assertEquals("Classes were transformed again after being precomputed", misses, loader.getClassBytesMisses());
+			assertEquals(onDemand.keySet(), precomputed.keySet());
+			for (String name : onDemand.keySet()) {
+				assertArrayEquals(name, onDemand.get(name), precomputed.get(name));
+			}
+		}
+	}
+
+	/**
+	 * Load a jar into a new Filament instance, with the fixture hooks and injectors.
+	 */
+	private static FilamentClassLoader load(File jar, int threads) throws Exception {
+		Filament.filament = null;
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.setParallelism(threads);
+		loader.loadJar(jar);
+		Hooks.load(ParallelHookingTest.HOOKS);
+		Injectors.register(MarkerInjector.class);
+		return loader;
+	}
+
+	private static TreeMap<String, byte[]> getClassBytes(FilamentClassLoader loader) {
+		TreeMap<String, byte[]> classes = new TreeMap<String, byte[]>();
+		for (String name : Filament.filament.classes.keySet()) {
+			classes.put(name, loader.getClassBytes(name));
+		}
+		return classes;
+	}
+}
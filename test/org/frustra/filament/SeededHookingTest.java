@@ -0,0 +1,67 @@
+package org.frustra.filament;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.frustra.filament.fixture.hooking.ReaderHooks;
+import org.frustra.filament.fixture.hooking.TreeHooks;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Hooks the same classes with and without seeds, and checks that seeded hooking resolves exactly the same hooks,
+ * whether the seeds are right or point at the wrong classes.
+ */
+public class SeededHookingTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void reset() {
+		// Every FilamentClassLoader creates the global Filament instance, so the one left by an earlier test is dropped
+		Filament.filament = null;
+	}
+
+	@Test
+	public void seededHookingMatchesUnseeded() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		String[] unseeded = hook(corpus, null);
+		assertArrayEquals(ParallelHookingTest.expected(), unseeded);
+		Map<String, String> seeds = Hooks.getSeeds();
+		assertEquals("org/objectweb/asm/ClassReader", seeds.get(ReaderHooks.class.getName()));
+		assertEquals("org/objectweb/asm/tree/ClassNode", seeds.get(TreeHooks.class.getName()));
+
+		assertArrayEquals(unseeded, hook(corpus, seeds));
+		assertEquals(seeds, Hooks.getSeeds());
+	}
+
+	@Test
+	public void wrongSeedsFallBackToUnseeded() throws Exception {
+		File corpus = TestJars.corpus(folder.newFile("corpus.jar"));
+		String[] unseeded = hook(corpus, null);
+		TreeMap<String, String> seeds = new TreeMap<String, String>();
+		for (String provider : Hooks.getSeeds().keySet()) {
+			seeds.put(provider, "org/objectweb/asm/ClassWriter");
+		}
+		seeds.put(ReaderHooks.class.getName(), "org/frustra/filament/generated/Missing");
+		assertArrayEquals(unseeded, hook(corpus, seeds));
+	}
+
+	private static String[] hook(File jar, Map<String, String> seeds) throws Exception {
+		Filament.filament = null;
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.loadJar(jar);
+		if (seeds == null) {
+			Hooks.load(ParallelHookingTest.HOOKS);
+		} else {
+			Hooks.load(ParallelHookingTest.HOOKS, seeds);
+		}
+		return Hooks.describeHooks();
+	}
+}
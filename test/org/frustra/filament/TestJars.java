@@ -0,0 +1,156 @@
+package org.frustra.filament;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * TestJars creates the jars loaded into filament by the tests.
+ */
+final class TestJars {
+	/**
+	 * The number of generated classes added to the corpus, so it is large enough to be split between threads.
+	 */
+	static final int GENERATED = 500;
+
+	private TestJars() {}
+
+	/**
+	 * Write a jar of real code for the hooking tests, containing every class of ASM and the ASM tree API,
+	 * followed by generated classes with no code of interest.
+	 *
+	 * @param file the jar to write
+	 * @return the written jar
+	 * @throws IOException if the jar couldn't be written
+	 * @throws URISyntaxException if the ASM jars couldn't be found
+	 */
+	static File corpus(File file) throws IOException, URISyntaxException {
+		LinkedHashMap<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		read(locate(ClassReader.class), classes);
+		read(locate(ClassNode.class), classes);
+		for (int i = 0; i < GENERATED; i++) {
+			String name = "org/frustra/filament/generated/Corpus" + i;
+			classes.put(name, generate(name, "java/lang/Object"));
+		}
+		return write(file, classes);
+	}
+
+	/**
+	 * Write classes to a jar.
+	 *
+	 * @param file the jar to write
+	 * @param classes the bytes of each class by internal name
+	 * @return the written jar
+	 * @throws IOException if the jar couldn't be written
+	 */
+	static File write(File file, Map<String, byte[]> classes) throws IOException {
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+		try {
+			for (Entry<String, byte[]> entry : classes.entrySet()) {
+				out.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+				out.write(entry.getValue());
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Generate an empty public class with a public constructor.
+	 *
+	 * @param name the internal name of the class
+	 * @param superName the internal name of its super class
+	 * @return the bytes of the class
+	 */
+	static byte[] generate(String name, String superName) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+		MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Find the jar or directory a class on the test class path was loaded from, such as one of the ASM jars.
+	 *
+	 * @param cls a class on the test class path
+	 * @return the code source of the class
+	 * @throws URISyntaxException if the location of the code source isn't a valid file
+	 */
+	static File locate(Class<?> cls) throws URISyntaxException {
+		return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI());
+	}
+
+	/**
+	 * Read every class of a jar.
+	 *
+	 * @param file the jar to read
+	 * @param classes the map to add the bytes of each class to, by internal name
+	 * @throws IOException if the jar couldn't be read
+	 */
+	static void read(File file, Map<String, byte[]> classes) throws IOException {
+		JarFile jar = new JarFile(file);
+		try {
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (!name.endsWith(".class")) continue;
+				classes.put(name.substring(0, name.length() - 6), read(jar.getInputStream(entry)));
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * Read the class file of a class on the test class path.
+	 *
+	 * @param cls the class to read
+	 * @return the bytes of the class
+	 * @throws IOException if the class file couldn't be read
+	 */
+	static byte[] read(Class<?> cls) throws IOException {
+		InputStream in = TestJars.class.getClassLoader().getResourceAsStream(cls.getName().replace('.', '/') + ".class");
+		if (in == null) throw new IOException("Class file not found: " + cls.getName());
+		return read(in);
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.frustra.filament;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.frustra.filament.fixture.weave.Client;
+import org.frustra.filament.fixture.weave.Counter;
+import org.frustra.filament.fixture.weave.Doubler;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Weaves a jar using {@link org.frustra.filament.injection.annotations.ProxyMethod ProxyMethod} and
+ * {@link org.frustra.filament.injection.annotations.OverrideMethod OverrideMethod}, and checks that the woven jar runs without filament
+ * exactly as the same classes run through a {@link FilamentClassLoader}.
+ */
+public class WeaverTest {
+	private static final String HOOKS = "org.frustra.filament.fixture.weave.hooks";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void reset() {
+		// Every FilamentClassLoader creates the global Filament instance, so the one left by an earlier test is dropped
+		Filament.filament = null;
+	}
+
+	@Test
+	public void wovenJarMatchesFilament() throws Exception {
+		LinkedHashMap<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+		for (Class<?> cls : new Class<?>[] { Counter.class, Doubler.class, Client.class }) {
+			classes.put(cls.getName().replace('.', '/'), TestJars.read(cls));
+		}
+		File input = TestJars.write(folder.newFile("input.jar"), classes);
+		File output = folder.newFile("woven.jar");
+		assertEquals(classes.size(), Weaver.weave(new FilamentClassLoader(false), input, output, HOOKS));
+
+		// The woven jar only needs the JDK, so nothing from the test class path may be visible to it
+		URLClassLoader woven = new URLClassLoader(new URL[] { output.toURI().toURL() }, null);
+		try {
+			woven.loadClass(Hooks.class.getName());
+			fail("Filament is visible to the woven jar");
+		} catch (ClassNotFoundException e) {}
+		assertEquals(42, call(woven.loadClass(Client.class.getName())));
+
+		Filament.filament = null;
+		FilamentClassLoader loader = new FilamentClassLoader(false);
+		loader.loadJar(input);
+		Hooks.load(HOOKS);
+		assertEquals(42, call(loader.loadClass(Client.class.getName())));
+
+		JarFile jar = new JarFile(output);
+		try {
+			assertNotNull(jar.getJarEntry(Weaver.HOOKS_ENTRY));
+			for (Entry<String, byte[]> entry : classes.entrySet()) {
+				String name = entry.getKey().replace('/', '.');
+				assertArrayEquals(name, loader.getClassBytes(name), read(jar, entry.getKey() + ".class"));
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	private static int call(Class<?> client) throws Exception {
+		return (Integer) client.getMethod("call").invoke(null);
+	}
+
+	private static byte[] read(JarFile jar, String name) throws IOException {
+		JarEntry entry = jar.getJarEntry(name);
+		assertNotNull(name, entry);
+		InputStream in = jar.getInputStream(entry);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) > 0) {
+				out.write(buf, 0, len);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
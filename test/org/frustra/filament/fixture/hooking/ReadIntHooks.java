@@ -0,0 +1,30 @@
+package org.frustra.filament.fixture.hooking;
+
+import org.frustra.filament.Hooks;
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.MethodProvider;
+import org.frustra.filament.hooking.types.ReadsHooks;
+import org.frustra.filament.hooking.types.RequireMethodDesc;
+import org.frustra.filament.hooking.types.WritesHooks;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Finds the method of {@link ReaderHooks Reader} reading an int from the class file.
+ */
+@ReadsHooks("Reader")
+@WritesHooks("Reader.readInt")
+@RequireMethodDesc("(I)I")
+public class ReadIntHooks extends MethodProvider {
+	public boolean match(FilamentClassNode node) throws BadHookException {
+		return node.matches("Reader");
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m) {
+		return m.name.equals("readInt") && m.desc.equals("(I)I");
+	}
+
+	protected void complete(FilamentClassNode node, MethodNode m) {
+		Hooks.set("Reader.readInt", m);
+	}
+}
@@ -0,0 +1,36 @@
+package org.frustra.filament.fixture.hooking;
+
+import org.frustra.filament.Hooks;
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.InstructionProvider;
+import org.frustra.filament.hooking.types.ReadsHooks;
+import org.frustra.filament.hooking.types.RequireOpcode;
+import org.frustra.filament.hooking.types.WritesHooks;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Finds the method of {@link ReaderHooks Reader} narrowing the value it read to a short.
+ */
+@ReadsHooks("Reader")
+@WritesHooks("Reader.readShort")
+@RequireOpcode(Opcodes.I2S)
+public class ReadShortHooks extends InstructionProvider {
+	public boolean match(FilamentClassNode node) throws BadHookException {
+		return node.matches("Reader");
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m) {
+		return m.desc.equals("(I)S");
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m, AbstractInsnNode insn) {
+		return insn.getOpcode() == Opcodes.I2S;
+	}
+
+	protected void complete(FilamentClassNode node, MethodNode m, AbstractInsnNode insn) {
+		Hooks.set("Reader.readShort", m);
+	}
+}
@@ -0,0 +1,30 @@
+package org.frustra.filament.fixture.hooking;
+
+import org.frustra.filament.Hooks;
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.FieldProvider;
+import org.frustra.filament.hooking.types.ReadsHooks;
+import org.frustra.filament.hooking.types.RequireFieldDesc;
+import org.frustra.filament.hooking.types.WritesHooks;
+import org.objectweb.asm.tree.FieldNode;
+
+/**
+ * Finds the byte array holding the class file read by {@link ReaderHooks Reader}.
+ */
+@ReadsHooks("Reader")
+@WritesHooks("Reader.buffer")
+@RequireFieldDesc("[B")
+public class ReaderBufferHooks extends FieldProvider {
+	public boolean match(FilamentClassNode node) throws BadHookException {
+		return node.matches("Reader");
+	}
+
+	public boolean match(FilamentClassNode node, FieldNode f) {
+		return f.desc.equals("[B");
+	}
+
+	protected void complete(FilamentClassNode node, FieldNode f) {
+		Hooks.set("Reader.buffer", f);
+	}
+}
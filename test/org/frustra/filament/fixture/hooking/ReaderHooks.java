@@ -0,0 +1,25 @@
+package org.frustra.filament.fixture.hooking;
+
+import org.frustra.filament.Hooks;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.ConstantProvider;
+import org.frustra.filament.hooking.types.MatchConstant;
+import org.frustra.filament.hooking.types.RequireConstant;
+import org.frustra.filament.hooking.types.WritesHooks;
+
+/**
+ * Finds ASM's <code>ClassReader</code> by the message it throws for a missing class.
+ */
+@WritesHooks({ "Reader", "Reader.error" })
+@RequireConstant("Class not found")
+@MatchConstant("Class not found")
+public class ReaderHooks extends ConstantProvider {
+	public boolean match(FilamentClassNode node, String constant) {
+		return constant.equals("Class not found");
+	}
+
+	protected void complete(FilamentClassNode node, String constant) {
+		Hooks.set("Reader", node);
+		Hooks.set("Reader.error", constant);
+	}
+}
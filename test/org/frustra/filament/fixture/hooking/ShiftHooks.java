@@ -0,0 +1,43 @@
+package org.frustra.filament.fixture.hooking;
+
+import org.frustra.filament.Hooks;
+import org.frustra.filament.hooking.BadHookException;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.InsnPattern;
+import org.frustra.filament.hooking.types.PatternProvider;
+import org.frustra.filament.hooking.types.ReadsHooks;
+import org.frustra.filament.hooking.types.RequireOpcode;
+import org.frustra.filament.hooking.types.WritesHooks;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Finds the shift of the highest byte in the method found by {@link ReadIntHooks}.
+ */
+@ReadsHooks({ "Reader", "Reader.readInt" })
+@WritesHooks("Reader.shift")
+@RequireOpcode({ Opcodes.BIPUSH, Opcodes.ISHL })
+public class ShiftHooks extends PatternProvider {
+	public boolean match(FilamentClassNode node) throws BadHookException {
+		return node.matches("Reader");
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m) throws BadHookException {
+		MethodNode readInt = Hooks.getMethod("Reader.readInt");
+		return m.name.equals(readInt.name) && m.desc.equals(readInt.desc);
+	}
+
+	public InsnPattern getPattern() {
+		return new InsnPattern().opcode(Opcodes.BIPUSH).capture().opcode(Opcodes.ISHL);
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m, AbstractInsnNode[] captured) {
+		return ((IntInsnNode) captured[0]).operand == 24;
+	}
+
+	protected void complete(FilamentClassNode node, MethodNode m, AbstractInsnNode[] captured) {
+		Hooks.set("Reader.shift", ((IntInsnNode) captured[0]).operand);
+	}
+}
@@ -0,0 +1,24 @@
+package org.frustra.filament.fixture.hooking;
+
+import org.frustra.filament.Hooks;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.ClassProvider;
+import org.frustra.filament.hooking.types.RequireFieldDesc;
+import org.frustra.filament.hooking.types.RequireSuperClass;
+import org.frustra.filament.hooking.types.WritesHooks;
+
+/**
+ * Finds the <code>ClassNode</code> of the ASM tree API, the only class visitor keeping its members in lists.
+ */
+@WritesHooks("Tree")
+@RequireSuperClass("org/objectweb/asm/ClassVisitor")
+@RequireFieldDesc("Ljava/util/List;")
+public class TreeHooks extends ClassProvider {
+	public boolean match(FilamentClassNode node) {
+		return node.superName.equals("org/objectweb/asm/ClassVisitor") && node.containsFieldDesc("Ljava/util/List;");
+	}
+
+	protected void complete(FilamentClassNode node) {
+		Hooks.set("Tree", node);
+	}
+}
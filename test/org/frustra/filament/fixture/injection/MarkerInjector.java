@@ -0,0 +1,20 @@
+package org.frustra.filament.fixture.injection;
+
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.injection.ClassInjector;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+
+/**
+ * Adds a constant field to every class of the ASM tree API, so those classes are written from their trees.
+ */
+public class MarkerInjector extends ClassInjector {
+	protected boolean match(FilamentClassNode node) {
+		return node.name.startsWith("org/objectweb/asm/tree/");
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void inject(FilamentClassNode node) {
+		node.fields.add(new FieldNode(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "injected", "Z", null, 1));
+	}
+}
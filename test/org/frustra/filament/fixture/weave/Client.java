@@ -0,0 +1,15 @@
+package org.frustra.filament.fixture.weave;
+
+import org.frustra.filament.injection.annotations.ProxyMethod;
+
+/**
+ * Calls the hooked method of {@link Counter} through a proxy, which only works once the class is injected.
+ */
+public class Client {
+	@ProxyMethod("Counter.value")
+	public static native int value(Object counter);
+
+	public static int call() {
+		return value(new Doubler());
+	}
+}
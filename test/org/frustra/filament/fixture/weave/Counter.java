@@ -0,0 +1,10 @@
+package org.frustra.filament.fixture.weave;
+
+/**
+ * The class hooked by {@link org.frustra.filament.fixture.weave.hooks.CounterHooks CounterHooks}, as it would look after obfuscation.
+ */
+public class Counter {
+	public int a() {
+		return 1;
+	}
+}
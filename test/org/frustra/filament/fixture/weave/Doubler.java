@@ -0,0 +1,13 @@
+package org.frustra.filament.fixture.weave;
+
+import org.frustra.filament.injection.annotations.OverrideMethod;
+
+/**
+ * Overrides the hooked method of {@link Counter} under its readable name.
+ */
+public class Doubler extends Counter {
+	@OverrideMethod("Counter.value")
+	public int value() {
+		return 42;
+	}
+}
@@ -0,0 +1,24 @@
+package org.frustra.filament.fixture.weave.hooks;
+
+import org.frustra.filament.Hooks;
+import org.frustra.filament.hooking.FilamentClassNode;
+import org.frustra.filament.hooking.types.MethodProvider;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Finds the method of {@link org.frustra.filament.fixture.weave.Counter Counter} returning its value.
+ */
+public class CounterHooks extends MethodProvider {
+	public boolean match(FilamentClassNode node) {
+		return node.name.equals("org/frustra/filament/fixture/weave/Counter");
+	}
+
+	public boolean match(FilamentClassNode node, MethodNode m) {
+		return m.name.equals("a") && m.desc.equals("()I");
+	}
+
+	protected void complete(FilamentClassNode node, MethodNode m) {
+		Hooks.set("Counter", node);
+		Hooks.set("Counter.value", m);
+	}
+}